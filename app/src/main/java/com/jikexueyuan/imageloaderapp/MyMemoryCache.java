@@ -5,7 +5,9 @@ import android.graphics.Bitmap;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
 import android.util.DisplayMetrics;
-import android.util.LruCache;
+
+import com.jikexueyuan.imageloaderapp.view.ClockCache;
+import com.jikexueyuan.imageloaderapp.view.MemoryTrimmer;
 
 /**
  * Created by Cong Hao on 2015/12/21.
@@ -16,26 +18,21 @@ public class MyMemoryCache {
 	private volatile static MyMemoryCache mInstance;
 
 	/**
-	 * 	 Android自带缓存机制
-	 * 	 内部熟悉有:
-	 * 	 	 private int size; //已经存储的大小
-			 private int maxSize; //规定的最大存储空间
-			 private int putCount;  //put的次数
-			 private int createCount;  //create的次数
-			 private int evictionCount;  //回收的次数
-			 private int hitCount;  //命中的次数
-			 private int missCount;  //丢失的次数
-
-	     这里key为缓存图片名称
-	 		value为缓存图片的bitmap
-	 * */
-	private LruCache<String, Bitmap> mLruCache;
+	 * 读操作无锁的缓存(ClockCache),get不加锁,put和淘汰在锁内按GCLOCK进行
+	 * 按sizeOf计算容量,命中/未命中/淘汰次数通过hitCount()/missCount()/evictionCount()获取
+	 * key为缓存图片名称,value为缓存图片的bitmap
+	 */
+	private ClockCache<String, Bitmap> mCache;
 
 	/**4屏缓存用于跟最小缓存作比较*/
 	private static final int SCREENS_OF_MEMORY_CACHE = 4;
 
+	/**缓存的原始容量,内存紧张时按比例缩小,之后逐步恢复*/
+	private final int mBaseSize;
+
 	private MyMemoryCache(Context context) {
-		this.mLruCache = new LruCache<String, Bitmap>(getCacheSize(context, SCREENS_OF_MEMORY_CACHE)) {
+		this.mBaseSize = getCacheSize(context, SCREENS_OF_MEMORY_CACHE);
+		this.mCache = new ClockCache<String, Bitmap>(mBaseSize) {
 
 			@Override
 			protected int sizeOf(String key, Bitmap bitmap) {
@@ -43,6 +40,16 @@ public class MyMemoryCache {
 				return bitmap.getByteCount();
 			}
 		};
+		/**根据系统内存紧张程度调整缓存容量*/
+		context.registerComponentCallbacks(new MemoryTrimmer(new MemoryTrimmer.Target() {
+			@Override
+			public void onCapacityChanged(int percent) {
+				if (percent == 0) {
+					mCache.evictAll();
+				}
+				mCache.resize(Math.max(1, (int) ((long) mBaseSize * percent / 100)));
+			}
+		}));
 	}
 
 	/**
@@ -66,7 +73,7 @@ public class MyMemoryCache {
 	}
 
 	/**
-	 * 定义LruCache的缓存大小为 当前手机内存的1/8 或 4屏图片的内存大小
+	 * 缓存大小为 当前手机内存的1/8 或 4屏图片的内存大小中较小的一个
 	 * @param context
 	 * @param intScreens
      * @return
@@ -94,21 +101,21 @@ public class MyMemoryCache {
 	/**setter and getter*/
 	public final Bitmap get(@NonNull String key) {
 		if(!TextUtils.isEmpty(key)) {
-			return this.mLruCache.get(key);
+			return this.mCache.get(key);
 		} else {
 			return null;
 		}
 	}
 	public final Bitmap put(@NonNull String key, @NonNull Bitmap bitmap) {
 		if (!TextUtils.isEmpty(key) && !bitmap.isRecycled()) {
-			return this.mLruCache.put(key, bitmap);
+			return this.mCache.put(key, bitmap);
 		} else {
 			return null;
 		}
 	}
 	public final Bitmap remove(@NonNull String key) {
 		if (!TextUtils.isEmpty(key)) {
-			return this.mLruCache.remove(key);
+			return this.mCache.remove(key);
 		} else {
 			return null;
 		}
@@ -125,10 +132,27 @@ public class MyMemoryCache {
 		return str + "_" + String.valueOf(width) + "_" + String.valueOf(height);
 	}
 
+	/**统计信息*/
+	public final int hitCount() {
+		return this.mCache.hitCount();
+	}
+	public final int missCount() {
+		return this.mCache.missCount();
+	}
+	public final int evictionCount() {
+		return this.mCache.evictionCount();
+	}
+	public final int size() {
+		return this.mCache.size();
+	}
+	public final int maxSize() {
+		return this.mCache.maxSize();
+	}
+
 	/**
 	 * 清空缓存
 	 */
 	public final void evictAll() {
-		this.mLruCache.evictAll();
+		this.mCache.evictAll();
 	}
 }
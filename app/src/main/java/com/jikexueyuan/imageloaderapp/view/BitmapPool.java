@@ -0,0 +1,211 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bitmap复用池
+ * 内存缓存淘汰下来的bitmap放入池中,解码时通过BitmapFactory.Options.inBitmap复用其像素内存,
+ * 从而减少滑动时频繁分配大块内存引起的GC_FOR_ALLOC卡顿
+ *
+ * 按字节数分桶存放:
+ *      4.4及以上只要求被复用的bitmap字节数不小于解码结果
+ *      4.4以下要求宽高、Config完全一致,且采样率为1
+ * 池有自己的容量上限,超出时回收最久未使用的bitmap
+ */
+public class BitmapPool {
+
+    private static final String TAG = "BitmapPool";
+
+    /**
+     * 4.4及以上复用时,允许池中bitmap比实际需要大的最大倍数,避免小图占用大块内存
+     */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    /**
+     * 按字节数分桶
+     */
+    private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+
+    /**
+     * 按放入顺序排列,用于超出容量时淘汰最旧的
+     */
+    private final LinkedList<Bitmap> mBitmapsByLastUse = new LinkedList<Bitmap>();
+
+    /**
+     * 池的最大字节数
+     */
+    private long mMaxSize;
+
+    /**
+     * 池中bitmap的总字节数
+     */
+    private long mCurrentSize;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+
+    public BitmapPool(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 放入一个不再使用的bitmap,只接受可变(inMutable)的bitmap
+     * @param bitmap
+     * @return 是否放入成功
+     */
+    public synchronized boolean put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return false;
+        }
+        int size = getBitmapByteSize(bitmap);
+        if (size > mMaxSize) {
+            return false;
+        }
+
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new LinkedList<Bitmap>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.add(bitmap);
+        mBitmapsByLastUse.add(bitmap);
+        mCurrentSize += size;
+        mPutCount++;
+        trimToSize(mMaxSize);
+        return true;
+    }
+
+    /**
+     * 取出一个可以用作inBitmap的bitmap,没有合适的返回null
+     * @param width 解码结果的宽
+     * @param height 解码结果的高
+     * @param config 解码结果的Config
+     * @return
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int size = width * height * getBytesPerPixel(config);
+        Bitmap result = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            Map.Entry<Integer, LinkedList<Bitmap>> entry = mBuckets.ceilingEntry(size);
+            if (entry != null && entry.getKey() <= size * MAX_SIZE_MULTIPLE) {
+                result = entry.getValue().getFirst();
+            }
+        } else {
+            LinkedList<Bitmap> bucket = mBuckets.get(size);
+            if (bucket != null) {
+                for (Bitmap bitmap : bucket) {
+                    if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                            && bitmap.getConfig() == config) {
+                        result = bitmap;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (result == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        remove(result);
+        return result;
+    }
+
+    /**
+     * 修改总容量,变小时立即释放
+     * @param maxSize
+     */
+    public synchronized void resize(long maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * 清空复用池
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    private void trimToSize(long maxSize) {
+        while (mCurrentSize > maxSize && !mBitmapsByLastUse.isEmpty()) {
+            Bitmap eldest = mBitmapsByLastUse.getFirst();
+            remove(eldest);
+            eldest.recycle();
+            mEvictionCount++;
+        }
+    }
+
+    private void remove(Bitmap bitmap) {
+        int size = getBitmapByteSize(bitmap);
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        bucket.remove(bitmap);
+        if (bucket.isEmpty()) {
+            mBuckets.remove(size);
+        }
+        mBitmapsByLastUse.remove(bitmap);
+        mCurrentSize -= size;
+    }
+
+    /**
+     * bitmap实际占用的字节数,4.4及以上可能大于当前宽高所需
+     * @param bitmap
+     * @return
+     */
+    private static int getBitmapByteSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+
+    public synchronized long size() {
+        return mCurrentSize;
+    }
+
+    public synchronized long maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public synchronized int putCount() {
+        return mPutCount;
+    }
+
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return TAG + "[size=" + mCurrentSize + ",maxSize=" + mMaxSize + ",hits=" + mHitCount
+                + ",misses=" + mMissCount + ",hitRate=" + hitPercent + "%,evictions=" + mEvictionCount + "]";
+    }
+}
@@ -0,0 +1,90 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * byte[]缓冲区复用池
+ * 下载/拷贝时反复申请的读写缓冲区从这里获取,用完归还,减少GC
+ * 池中缓冲区的总大小不超过sizeLimit,超出时丢弃最久未使用的
+ */
+public class ByteArrayPool {
+
+    /**
+     * 按最近使用顺序排列,用于超出容量时丢弃最旧的缓冲区
+     */
+    private final List<byte[]> mBuffersByLastUse = new LinkedList<byte[]>();
+
+    /**
+     * 按大小排列,用于快速找到满足长度要求的最小缓冲区
+     */
+    private final List<byte[]> mBuffersBySize = new ArrayList<byte[]>(64);
+
+    /**
+     * 池中缓冲区的总字节数
+     */
+    private int mCurrentSize = 0;
+
+    /**
+     * 池的最大字节数
+     */
+    private final int mSizeLimit;
+
+    private static final Comparator<byte[]> BUF_COMPARATOR = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] lhs, byte[] rhs) {
+            return lhs.length - rhs.length;
+        }
+    };
+
+    public ByteArrayPool(int sizeLimit) {
+        mSizeLimit = sizeLimit;
+    }
+
+    /**
+     * 获取一个长度至少为len的缓冲区,池中没有合适的则新建
+     * @param len
+     * @return
+     */
+    public synchronized byte[] getBuf(int len) {
+        for (int i = 0; i < mBuffersBySize.size(); i++) {
+            byte[] buf = mBuffersBySize.get(i);
+            if (buf.length >= len) {
+                mCurrentSize -= buf.length;
+                mBuffersBySize.remove(i);
+                mBuffersByLastUse.remove(buf);
+                return buf;
+            }
+        }
+        return new byte[len];
+    }
+
+    /**
+     * 归还缓冲区,超出容量时丢弃最旧的
+     * @param buf
+     */
+    public synchronized void returnBuf(byte[] buf) {
+        if (buf == null || buf.length > mSizeLimit) {
+            return;
+        }
+        mBuffersByLastUse.add(buf);
+        int pos = Collections.binarySearch(mBuffersBySize, buf, BUF_COMPARATOR);
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+        mBuffersBySize.add(pos, buf);
+        mCurrentSize += buf.length;
+        trim();
+    }
+
+    private synchronized void trim() {
+        while (mCurrentSize > mSizeLimit) {
+            byte[] buf = mBuffersByLastUse.remove(0);
+            mBuffersBySize.remove(buf);
+            mCurrentSize -= buf.length;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 常用的url规范化规则:
+ *      去掉与图片内容无关的查询参数(如token、签名、统计参数)
+ *      按参数名排序,参数顺序不同的url得到同一个key
+ *      把CDN的多个域名映射到同一个域名
+ * 主机名不区分大小写,一律转成小写;#之后的片段不会发送给服务器,一律去掉
+ *
+ * 只做字符串处理,不解码参数,参数名区分大小写
+ */
+public class CanonicalKeyStrategy implements KeyStrategy {
+
+    private static final Comparator<String> PARAMETER_NAME_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            return getParameterName(lhs).compareTo(getParameterName(rhs));
+        }
+    };
+
+    private final Set<String> mIgnoredParameters;
+    private final boolean mIgnoreAllParameters;
+    private final boolean mSortParameters;
+    private final Map<String, String> mHostAliases;
+
+    private CanonicalKeyStrategy(Builder builder) {
+        mIgnoredParameters = new HashSet<String>(builder.mIgnoredParameters);
+        mIgnoreAllParameters = builder.mIgnoreAllParameters;
+        mSortParameters = builder.mSortParameters;
+        mHostAliases = new HashMap<String, String>(builder.mHostAliases);
+    }
+
+    @Override
+    public String getCacheUrl(String url) {
+        int fragmentStart = url.indexOf('#');
+        if (fragmentStart >= 0) {
+            url = url.substring(0, fragmentStart);
+        }
+        String query = null;
+        int queryStart = url.indexOf('?');
+        if (queryStart >= 0) {
+            query = url.substring(queryStart + 1);
+            url = url.substring(0, queryStart);
+        }
+
+        StringBuilder builder = new StringBuilder(url.length() + (query != null ? query.length() + 1 : 0));
+        appendSchemeAndHost(builder, url);
+        if (query != null && !mIgnoreAllParameters) {
+            appendQuery(builder, query);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 写入查询参数之前的部分,主机名转成小写并替换别名
+     * @param builder
+     * @param url 不含查询参数和片段
+     */
+    private void appendSchemeAndHost(StringBuilder builder, String url) {
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd < 0) {
+            builder.append(url);
+            return;
+        }
+        int authorityStart = schemeEnd + 3;
+        int authorityEnd = url.indexOf('/', authorityStart);
+        if (authorityEnd < 0) {
+            authorityEnd = url.length();
+        }
+        //用户信息和端口保持不变
+        int hostStart = url.lastIndexOf('@', authorityEnd - 1) + 1;
+        if (hostStart < authorityStart) {
+            hostStart = authorityStart;
+        }
+        //IPv6地址写在方括号内,其中的冒号不是端口的分隔符
+        int portSearchStart = hostStart;
+        if (url.startsWith("[", hostStart)) {
+            int bracketEnd = url.indexOf(']', hostStart);
+            if (bracketEnd > 0 && bracketEnd < authorityEnd) {
+                portSearchStart = bracketEnd + 1;
+            }
+        }
+        int hostEnd = url.indexOf(':', portSearchStart);
+        if (hostEnd < 0 || hostEnd > authorityEnd) {
+            hostEnd = authorityEnd;
+        }
+        String host = url.substring(hostStart, hostEnd).toLowerCase(Locale.US);
+        String alias = mHostAliases.get(host);
+        builder.append(url, 0, schemeEnd + 3).append(url, authorityStart, hostStart)
+                .append(alias != null ? alias : host)
+                .append(url, hostEnd, url.length());
+    }
+
+    private void appendQuery(StringBuilder builder, String query) {
+        List<String> parameters = new ArrayList<String>();
+        for (String parameter : query.split("&")) {
+            if (parameter.isEmpty() || mIgnoredParameters.contains(getParameterName(parameter))) {
+                continue;
+            }
+            parameters.add(parameter);
+        }
+        if (parameters.isEmpty()) {
+            return;
+        }
+        if (mSortParameters) {
+            //排序是稳定的,同名参数保持原来的顺序
+            Collections.sort(parameters, PARAMETER_NAME_ORDER);
+        }
+        builder.append('?');
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                builder.append('&');
+            }
+            builder.append(parameters.get(i));
+        }
+    }
+
+    private static String getParameterName(String parameter) {
+        int index = parameter.indexOf('=');
+        return index >= 0 ? parameter.substring(0, index) : parameter;
+    }
+
+    public static class Builder {
+        private final Set<String> mIgnoredParameters = new HashSet<String>();
+        private boolean mIgnoreAllParameters;
+        private boolean mSortParameters;
+        private final Map<String, String> mHostAliases = new HashMap<String, String>();
+
+        /**
+         * 计算key时去掉这些查询参数
+         * @param names
+         * @return
+         */
+        public Builder ignoreParameters(String... names) {
+            Collections.addAll(mIgnoredParameters, names);
+            return this;
+        }
+
+        /**
+         * 计算key时去掉全部查询参数,适用于参数只用于鉴权或统计的图片服务器
+         * @return
+         */
+        public Builder ignoreAllParameters() {
+            mIgnoreAllParameters = true;
+            return this;
+        }
+
+        /**
+         * 按参数名排序
+         * @return
+         */
+        public Builder sortParameters() {
+            mSortParameters = true;
+            return this;
+        }
+
+        /**
+         * 把alias域名当作host,两者必须提供完全相同的资源
+         * @param alias
+         * @param host
+         * @return
+         */
+        public Builder hostAlias(String alias, String host) {
+            mHostAliases.put(alias.toLowerCase(Locale.US), host.toLowerCase(Locale.US));
+            return this;
+        }
+
+        public CanonicalKeyStrategy build() {
+            return new CanonicalKeyStrategy(this);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读操作无锁的内存缓存,用于替代LruCache
+ *
+ * LruCache每次get都要获取同一把锁来调整LinkedHashMap的顺序,主线程绑定时的查找会被工作线程的写入阻塞
+ * 这里使用ConcurrentHashMap查找,get只增加条目的访问频率,不加锁;
+ * put/remove/淘汰在锁内维护一个环形链表,按GCLOCK淘汰:
+ *      指针依次扫过各条目,频率大于0的减1后跳过,遇到频率为0的条目时将其淘汰
+ *      频率最大为3,经常访问的条目可以撑过几轮扫描,列表快速滑过的一次性图片不会把它们挤出去
+ *
+ * 与LruCache一样按sizeOf计算容量,在锁外回调entryRemoved
+ */
+public class ClockCache<K, V> {
+
+    /**
+     * 访问频率的上限
+     */
+    private static final int MAX_FREQUENCY = 3;
+
+    private final ConcurrentHashMap<K, Node<K, V>> mMap;
+
+    /**
+     * 保护环形链表、容量和写操作的计数
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * 淘汰指针,新条目插入到它之前,也就是一轮扫描中最后被检查的位置
+     */
+    private Node<K, V> mHand;
+
+    private int mSize;
+    private int mMaxSize;
+
+    private int mPutCount;
+    private int mEvictionCount;
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+
+    /**
+     * @param maxSize 总容量,单位与sizeOf一致
+     */
+    public ClockCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        mMap = new ConcurrentHashMap<K, Node<K, V>>();
+    }
+
+    /**
+     * 查找,不加锁
+     * @param key
+     * @return
+     */
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Node<K, V> node = mMap.get(key);
+        if (node == null) {
+            mMissCount.incrementAndGet();
+            return null;
+        }
+        //并发访问时可能少加一次,只影响淘汰的先后
+        int frequency = node.frequency;
+        if (frequency < MAX_FREQUENCY) {
+            node.frequency = frequency + 1;
+        }
+        mHitCount.incrementAndGet();
+        return node.value;
+    }
+
+    /**
+     * 放入缓存,超出容量时淘汰
+     * @param key
+     * @param value
+     * @return 被替换的值
+     */
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        Node<K, V> node = new Node<K, V>(key, value, safeSizeOf(key, value));
+        Node<K, V> previous;
+        synchronized (mLock) {
+            mPutCount++;
+            previous = mMap.put(key, node);
+            if (previous != null) {
+                unlink(previous);
+                mSize -= previous.size;
+            }
+            linkBeforeHand(node);
+            mSize += node.size;
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous.value, value);
+        }
+        trimToSize(maxSize());
+        return previous != null ? previous.value : null;
+    }
+
+    /**
+     * 淘汰条目直到总容量不超过maxSize
+     * @param maxSize 为-1时清空
+     */
+    public void trimToSize(int maxSize) {
+        while (true) {
+            Node<K, V> victim;
+            synchronized (mLock) {
+                if (mSize <= maxSize || mHand == null) {
+                    break;
+                }
+                victim = findVictim();
+                unlink(victim);
+                mMap.remove(victim.key, victim);
+                mSize -= victim.size;
+                mEvictionCount++;
+            }
+            entryRemoved(true, victim.key, victim.value, null);
+        }
+    }
+
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Node<K, V> previous;
+        synchronized (mLock) {
+            previous = mMap.remove(key);
+            if (previous != null) {
+                unlink(previous);
+                mSize -= previous.size;
+            }
+        }
+        if (previous == null) {
+            return null;
+        }
+        entryRemoved(false, key, previous.value, null);
+        return previous.value;
+    }
+
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     * 修改总容量,变小时立即淘汰
+     * @param maxSize
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        synchronized (mLock) {
+            mMaxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * 在锁内调用,沿指针扫描找出要淘汰的条目
+     * 读线程可能不断提高频率,扫描超过MAX_FREQUENCY + 1轮后直接淘汰当前条目
+     * @return
+     */
+    private Node<K, V> findVictim() {
+        int maxSteps = (MAX_FREQUENCY + 1) * mMap.size() + 1;
+        for (int step = 0; step < maxSteps; step++) {
+            Node<K, V> node = mHand;
+            int frequency = node.frequency;
+            if (frequency == 0) {
+                return node;
+            }
+            node.frequency = frequency - 1;
+            mHand = node.next;
+        }
+        return mHand;
+    }
+
+    private void linkBeforeHand(Node<K, V> node) {
+        if (mHand == null) {
+            node.prev = node;
+            node.next = node;
+            mHand = node;
+            return;
+        }
+        node.next = mHand;
+        node.prev = mHand.prev;
+        mHand.prev.next = node;
+        mHand.prev = node;
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (node.next == node) {
+            mHand = null;
+        } else {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            if (mHand == node) {
+                mHand = node.next;
+            }
+        }
+        node.prev = null;
+        node.next = null;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * 条目的大小,默认为1,即按条目数计算容量
+     * @param key
+     * @param value
+     * @return
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * 条目被淘汰、移除或替换时在锁外调用
+     * @param evicted 是否因容量不足被淘汰
+     * @param key
+     * @param oldValue
+     * @param newValue 替换时的新值,其他情况为null
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    public final int size() {
+        synchronized (mLock) {
+            return mSize;
+        }
+    }
+
+    public final int maxSize() {
+        synchronized (mLock) {
+            return mMaxSize;
+        }
+    }
+
+    public final int hitCount() {
+        return mHitCount.get();
+    }
+
+    public final int missCount() {
+        return mMissCount.get();
+    }
+
+    public final int putCount() {
+        synchronized (mLock) {
+            return mPutCount;
+        }
+    }
+
+    public final int evictionCount() {
+        synchronized (mLock) {
+            return mEvictionCount;
+        }
+    }
+
+    /**
+     * 当前所有条目的拷贝,顺序不代表访问顺序
+     * @return
+     */
+    public final Map<K, V> snapshot() {
+        Map<K, V> snapshot = new LinkedHashMap<K, V>();
+        for (Map.Entry<K, Node<K, V>> entry : mMap.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().value);
+        }
+        return snapshot;
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final int size;
+
+        /**
+         * 访问频率,读线程不加锁修改
+         */
+        volatile int frequency;
+
+        /**
+         * 环形链表,只在锁内访问
+         */
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, int size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import android.graphics.Bitmap;
+
+/**
+ * 单次请求的解码策略
+ *      preferRgb565: 不透明的图片(JPEG)以RGB_565解码,每像素2字节,内存减半
+ *      exactSize: 按2的幂采样后,再通过inDensity/inTargetDensity缩小到刚好覆盖请求尺寸
+ * 是否真正生效由图片本身决定:可能带透明通道的格式始终以ARGB_8888解码,请求尺寸未知时不做精确缩放
+ */
+public class DecodeOptions {
+
+    /**
+     * ARGB_8888,只按2的幂采样
+     */
+    public static final DecodeOptions ORIGINAL = new DecodeOptions(false, false);
+
+    /**
+     * 根据图片格式和请求尺寸(一般就是ImageView的大小)自动选择,占用内存最少
+     */
+    public static final DecodeOptions AUTO = new DecodeOptions(true, true);
+
+    public final boolean preferRgb565;
+    public final boolean exactSize;
+
+    public DecodeOptions(boolean preferRgb565, boolean exactSize) {
+        this.preferRgb565 = preferRgb565;
+        this.exactSize = exactSize;
+    }
+
+    /**
+     * 根据原始宽高、是否不透明和请求尺寸确定解码参数
+     * 采样率与之前相同,采样后的宽高都不小于请求尺寸;精确缩放时取宽高中缩放比较大的一边对齐,
+     * 保证结果仍覆盖请求尺寸(与centerCrop一致)
+     * @param width 原始宽
+     * @param height 原始高
+     * @param opaque 图片是否一定不透明
+     * @param reqWidth
+     * @param reqHeight
+     * @return
+     */
+    public DecodeSpec resolve(int width, int height, boolean opaque, int reqWidth, int reqHeight) {
+        int inSampleSize = ImageResizer.calculateInSampleSize(width, height, reqWidth, reqHeight);
+        Bitmap.Config config = preferRgb565 && opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        if (!exactSize || reqWidth <= 0 || reqHeight <= 0 || width <= 0 || height <= 0) {
+            return new DecodeSpec(width, height, inSampleSize, config, 0, 0);
+        }
+
+        int sampledWidth = DecodeSpec.sampledSize(width, inSampleSize);
+        int sampledHeight = DecodeSpec.sampledSize(height, inSampleSize);
+        int density;
+        int targetDensity;
+        //reqWidth/sampledWidth >= reqHeight/sampledHeight
+        if ((long) reqWidth * sampledHeight >= (long) reqHeight * sampledWidth) {
+            density = sampledWidth;
+            targetDensity = reqWidth;
+        } else {
+            density = sampledHeight;
+            targetDensity = reqHeight;
+        }
+        if (targetDensity >= density) {
+            //采样后已经不比请求尺寸大,不再缩放
+            return new DecodeSpec(width, height, inSampleSize, config, 0, 0);
+        }
+        return new DecodeSpec(width, height, inSampleSize, config, density, targetDensity);
+    }
+
+    /**
+     * 用于区分不同解码策略的请求,相同url和尺寸但策略不同的请求不能共享结果
+     * @return
+     */
+    public String getKey() {
+        return (preferRgb565 ? "5" : "8") + (exactSize ? "e" : "s");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DecodeOptions)) {
+            return false;
+        }
+        DecodeOptions other = (DecodeOptions) o;
+        return preferRgb565 == other.preferRgb565 && exactSize == other.exactSize;
+    }
+
+    @Override
+    public int hashCode() {
+        return (preferRgb565 ? 2 : 0) + (exactSize ? 1 : 0);
+    }
+}
@@ -0,0 +1,84 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import android.graphics.Bitmap;
+
+/**
+ * 一次解码的具体参数,由DecodeOptions根据图片信息和请求尺寸得出
+ * 解码结果的宽高 = 原始宽高 / inSampleSize * targetDensity / density
+ */
+public class DecodeSpec {
+
+    public final int inSampleSize;
+    public final Bitmap.Config config;
+
+    /**
+     * 精确缩放时的inDensity和inTargetDensity,不缩放时都为0
+     */
+    public final int density;
+    public final int targetDensity;
+
+    /**
+     * 预计的解码结果宽高,用于从复用池中取inBitmap
+     */
+    public final int width;
+    public final int height;
+
+    /**
+     * 只按2的幂采样,以ARGB_8888解码
+     * @param width 原始宽
+     * @param height 原始高
+     * @param inSampleSize
+     */
+    public DecodeSpec(int width, int height, int inSampleSize) {
+        this(width, height, inSampleSize, Bitmap.Config.ARGB_8888, 0, 0);
+    }
+
+    public DecodeSpec(int width, int height, int inSampleSize, Bitmap.Config config,
+                      int density, int targetDensity) {
+        this.inSampleSize = Math.max(1, inSampleSize);
+        this.config = config;
+        this.density = density;
+        this.targetDensity = targetDensity;
+        int sampledWidth = sampledSize(width, this.inSampleSize);
+        int sampledHeight = sampledSize(height, this.inSampleSize);
+        if (isScaled()) {
+            //与BitmapFactory一致,按比例缩放后四舍五入
+            float scale = (float) targetDensity / density;
+            this.width = Math.max(1, (int) (sampledWidth * scale + 0.5f));
+            this.height = Math.max(1, (int) (sampledHeight * scale + 0.5f));
+        } else {
+            this.width = sampledWidth;
+            this.height = sampledHeight;
+        }
+    }
+
+    /**
+     * 采样后的尺寸,不能整除时按向上取整估算
+     * @param size
+     * @param inSampleSize
+     * @return
+     */
+    static int sampledSize(int size, int inSampleSize) {
+        return (size + inSampleSize - 1) / inSampleSize;
+    }
+
+    public boolean isScaled() {
+        return density > 0 && targetDensity > 0 && targetDensity != density;
+    }
+
+    /**
+     * 内存缓存key的后缀:采样率,精确缩放时加上结果宽高,RGB_565时加上"_565"
+     * @return
+     */
+    public String getKeySuffix() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(inSampleSize);
+        if (isScaled()) {
+            builder.append('_').append(width).append('x').append(height);
+        }
+        if (config == Bitmap.Config.RGB_565) {
+            builder.append("_565");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DiskLruCache日志的批量刷新
+ * 每次提交后都flush会让每张图片都强制写一次journal,并使下载线程在DiskLruCache的锁上排队
+ * 磁盘缓存分片后,一次刷新所有分片的日志
+ * 这里改为在后台线程中按节奏刷新:累计maxPendingCommits次提交立即刷新,否则最多延迟maxDelayMillis
+ */
+public class DiskCacheFlusher {
+
+    private final ShardedDiskCache mDiskCache;
+
+    private final int mMaxPendingCommits;
+
+    private final long mMaxDelayMillis;
+
+    private final ScheduledExecutorService mExecutor;
+
+    /**
+     * 上次刷新以来的提交次数
+     */
+    private int mPendingCommits;
+
+    /**
+     * 已安排的延迟刷新
+     */
+    private ScheduledFuture<?> mScheduledFlush;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushNow();
+        }
+    };
+
+    /**
+     * @param diskCache
+     * @param maxPendingCommits 累计多少次提交后立即刷新
+     * @param maxDelayMillis 提交后最多延迟多久刷新
+     */
+    public DiskCacheFlusher(ShardedDiskCache diskCache, int maxPendingCommits, long maxDelayMillis) {
+        mDiskCache = diskCache;
+        mMaxPendingCommits = maxPendingCommits;
+        mMaxDelayMillis = maxDelayMillis;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ImageLoader-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 每次Editor.commit()之后调用
+     */
+    public synchronized void onCommit() {
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+        mPendingCommits++;
+        if (mPendingCommits >= mMaxPendingCommits) {
+            flushAsync();
+        } else if (mScheduledFlush == null) {
+            mScheduledFlush = mExecutor.schedule(mFlushTask, mMaxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 在后台线程中立即刷新,例如应用退到后台时
+     */
+    public synchronized void flushAsync() {
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+        if (mScheduledFlush != null) {
+            mScheduledFlush.cancel(false);
+        }
+        mScheduledFlush = mExecutor.schedule(mFlushTask, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 取消尚未执行的刷新并停止后台线程,磁盘缓存关闭前调用
+     */
+    public synchronized void shutdown() {
+        if (mScheduledFlush != null) {
+            mScheduledFlush.cancel(false);
+            mScheduledFlush = null;
+        }
+        mExecutor.shutdown();
+    }
+
+    /**
+     * 在当前线程中立即刷新
+     */
+    public void flushNow() {
+        synchronized (this) {
+            mPendingCommits = 0;
+            mScheduledFlush = null;
+        }
+        try {
+            mDiskCache.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
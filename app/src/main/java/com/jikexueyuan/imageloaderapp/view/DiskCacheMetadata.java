@@ -0,0 +1,157 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+/**
+ * 与磁盘缓存条目一起保存的图片信息(DiskLruCache的第二个value)
+ * 以"名称=值"逐行保存,解析时忽略无法识别的行,便于以后增加字段
+ */
+public class DiskCacheMetadata {
+
+    private static final String WIDTH = "width";
+    private static final String HEIGHT = "height";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String EXPIRES = "expires";
+    private static final String MIME_TYPE = "mimeType";
+    private static final String CONTENT_HASH = "contentHash";
+    private static final String DATA_KEY = "dataKey";
+
+    /**
+     * 原始宽高,未知时为0
+     */
+    public int width;
+    public int height;
+
+    /**
+     * 解析宽高时得到的图片格式,用于判断能否以RGB_565解码,未知时为null
+     */
+    public String mimeType;
+
+    /**
+     * 服务器返回的验证信息,用于条件请求,没有时为null
+     */
+    public String etag;
+    public String lastModified;
+
+    /**
+     * 过期时间(毫秒时间戳),为0时一直有效
+     */
+    public long expires;
+
+    /**
+     * 图片数据的MD5,用于发现不同url下的相同图片,未知时为null
+     */
+    public String contentHash;
+
+    /**
+     * 与其他条目的图片数据相同时,数据只保存在那个条目中,这里记录它的key
+     * 为null时图片数据就在本条目中
+     */
+    public String dataKey;
+
+    public boolean hasSize() {
+        return width > 0 && height > 0;
+    }
+
+    /**
+     * 是否只是指向另一个条目的别名
+     * @return
+     */
+    public boolean isAlias() {
+        return dataKey != null;
+    }
+
+    /**
+     * 复制数据条目中与图片本身有关的信息:原始宽高、格式和MD5
+     * @param data
+     */
+    public void copyContentFrom(DiskCacheMetadata data) {
+        width = data.width;
+        height = data.height;
+        mimeType = data.mimeType;
+        contentHash = data.contentHash;
+    }
+
+    /**
+     * 是否已过期,需要向服务器重新验证
+     * @param now
+     * @return
+     */
+    public boolean isExpired(long now) {
+        return expires > 0 && now >= expires;
+    }
+
+    /**
+     * 记录响应中的验证信息和过期时间
+     * 304响应可能不带ETag/Last-Modified,这时保留原来的
+     * @param response
+     */
+    public void updateFrom(FetchResponse response) {
+        if (response.getEtag() != null) {
+            etag = response.getEtag();
+        }
+        if (response.getLastModified() != null) {
+            lastModified = response.getLastModified();
+        }
+        expires = response.getExpires();
+    }
+
+    public static DiskCacheMetadata parse(String text) {
+        DiskCacheMetadata metadata = new DiskCacheMetadata();
+        if (text == null) {
+            return metadata;
+        }
+        for (String line : text.split("\n")) {
+            int index = line.indexOf('=');
+            if (index <= 0) {
+                continue;
+            }
+            String name = line.substring(0, index);
+            String value = line.substring(index + 1);
+            try {
+                if (WIDTH.equals(name)) {
+                    metadata.width = Integer.parseInt(value);
+                } else if (HEIGHT.equals(name)) {
+                    metadata.height = Integer.parseInt(value);
+                } else if (ETAG.equals(name)) {
+                    metadata.etag = value;
+                } else if (LAST_MODIFIED.equals(name)) {
+                    metadata.lastModified = value;
+                } else if (EXPIRES.equals(name)) {
+                    metadata.expires = Long.parseLong(value);
+                } else if (MIME_TYPE.equals(name)) {
+                    metadata.mimeType = value;
+                } else if (CONTENT_HASH.equals(name)) {
+                    metadata.contentHash = value;
+                } else if (DATA_KEY.equals(name)) {
+                    metadata.dataKey = value;
+                }
+            } catch (NumberFormatException e) {
+                //忽略损坏的字段
+            }
+        }
+        return metadata;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(WIDTH).append('=').append(width).append('\n');
+        builder.append(HEIGHT).append('=').append(height).append('\n');
+        appendLine(builder, MIME_TYPE, mimeType);
+        appendLine(builder, ETAG, etag);
+        appendLine(builder, LAST_MODIFIED, lastModified);
+        if (expires > 0) {
+            builder.append(EXPIRES).append('=').append(expires).append('\n');
+        }
+        appendLine(builder, CONTENT_HASH, contentHash);
+        appendLine(builder, DATA_KEY, dataKey);
+        return builder.toString();
+    }
+
+    private static void appendLine(StringBuilder builder, String name, String value) {
+        //值中的换行会破坏逐行格式,这样的值直接丢弃
+        if (value != null && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            builder.append(name).append('=').append(value).append('\n');
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * 编码数据(jpg/png原始字节)的内存缓存,位于bitmap内存缓存与DiskLruCache之间
+ * 解码后的bitmap通常是原始字节的10~20倍,同样的内存能多缓存很多屏,
+ * 回滚列表时可以直接从内存解码而不必读取磁盘
+ *
+ * 数据保存在Java堆外(direct ByteBuffer),不占用应用的堆内存上限
+ * 堆外内存按2的幂大小分块(slab),淘汰的块放入空闲列表供之后复用,避免频繁分配堆外内存
+ * 已分配的块(使用中+空闲)总大小不超过maxSize,超出时先释放空闲块,再按LRU淘汰条目
+ */
+public class EncodedMemoryCache {
+
+    /**
+     * 最小的块大小
+     */
+    private static final int MIN_SLAB_SIZE = 4 * 1024;
+
+    /**
+     * 单个条目最多占用总容量的比例,太大的图片不缓存
+     */
+    private static final int MAX_ENTRY_FRACTION = 8;
+
+    private long mMaxSize;
+
+    /**
+     * 已分配的块总大小,包括空闲块
+     */
+    private long mAllocatedSize;
+
+    /**
+     * 使用中的条目,按访问顺序排列
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * 空闲块,key为块大小
+     */
+    private final HashMap<Integer, LinkedList<ByteBuffer>> mFreeSlabs = new HashMap<Integer, LinkedList<ByteBuffer>>();
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    public EncodedMemoryCache(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 能够缓存的最大条目字节数
+     * @return
+     */
+    public synchronized int maxEntrySize() {
+        return (int) Math.min(Integer.MAX_VALUE, mMaxSize / MAX_ENTRY_FRACTION);
+    }
+
+    /**
+     * 缓存一份编码数据,拷贝data中position到limit之间的字节,不修改data的position
+     * @param key
+     * @param data
+     * @return 数据太大或无法分配时返回false
+     */
+    public synchronized boolean put(String key, ByteBuffer data) {
+        int length = data.remaining();
+        if (length == 0 || length > maxEntrySize()) {
+            return false;
+        }
+        Entry previous = mEntries.remove(key);
+        if (previous != null) {
+            recycleSlab(previous.slab);
+        }
+
+        ByteBuffer slab = obtainSlab(getSlabSize(length));
+        if (slab == null) {
+            return false;
+        }
+        slab.clear();
+        slab.put(data.duplicate());
+        mEntries.put(key, new Entry(slab, length));
+        return true;
+    }
+
+    /**
+     * 取出编码数据,拷贝到复用池中的堆内存数组,调用方用完后需将array()归还到pool
+     * 拷贝在锁内完成,返回后该条目即使被淘汰、其块被复用也不受影响
+     * @param key
+     * @param pool
+     * @return position为0,limit为数据长度;未命中时返回null
+     */
+    public synchronized ByteBuffer get(String key, ByteArrayPool pool) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        byte[] buf = pool.getBuf(entry.length);
+        ByteBuffer source = entry.slab.duplicate();
+        source.position(0);
+        source.limit(entry.length);
+        source.get(buf, 0, entry.length);
+        return ByteBuffer.wrap(buf, 0, entry.length);
+    }
+
+    public synchronized boolean contains(String key) {
+        return mEntries.containsKey(key);
+    }
+
+    public synchronized void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            recycleSlab(entry.slab);
+        }
+    }
+
+    /**
+     * 淘汰条目并释放空闲块,直到已分配的总大小不超过maxSize
+     * @param maxSize
+     */
+    public synchronized void trimToSize(long maxSize) {
+        while (mAllocatedSize > maxSize && (releaseFreeSlab() || evictEldest())) {
+            //继续释放
+        }
+    }
+
+    /**
+     * 修改总容量,变小时立即淘汰
+     * @param maxSize
+     */
+    public synchronized void resize(long maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized void evictAll() {
+        trimToSize(0);
+    }
+
+    /**
+     * 取得一个指定大小的块:优先复用空闲块,其次在容量内新分配,
+     * 容量不足时先释放其他大小的空闲块,再淘汰最久未使用的条目
+     * @param size
+     * @return
+     */
+    private ByteBuffer obtainSlab(int size) {
+        while (true) {
+            LinkedList<ByteBuffer> free = mFreeSlabs.get(size);
+            if (free != null && !free.isEmpty()) {
+                return free.removeFirst();
+            }
+            if (mAllocatedSize + size <= mMaxSize) {
+                mAllocatedSize += size;
+                return ByteBuffer.allocateDirect(size);
+            }
+            if (!releaseFreeSlab() && !evictEldest()) {
+                return null;
+            }
+        }
+    }
+
+    private void recycleSlab(ByteBuffer slab) {
+        LinkedList<ByteBuffer> free = mFreeSlabs.get(slab.capacity());
+        if (free == null) {
+            free = new LinkedList<ByteBuffer>();
+            mFreeSlabs.put(slab.capacity(), free);
+        }
+        free.add(slab);
+    }
+
+    /**
+     * 丢弃一个空闲块,其堆外内存随ByteBuffer被回收而释放
+     * @return 没有空闲块时返回false
+     */
+    private boolean releaseFreeSlab() {
+        Iterator<Map.Entry<Integer, LinkedList<ByteBuffer>>> iterator = mFreeSlabs.entrySet().iterator();
+        while (iterator.hasNext()) {
+            LinkedList<ByteBuffer> free = iterator.next().getValue();
+            if (!free.isEmpty()) {
+                mAllocatedSize -= free.removeFirst().capacity();
+                return true;
+            }
+            iterator.remove();
+        }
+        return false;
+    }
+
+    /**
+     * 淘汰最久未使用的条目,其块放入空闲列表
+     * @return 没有条目时返回false
+     */
+    private boolean evictEldest() {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        Entry eldest = iterator.next();
+        iterator.remove();
+        recycleSlab(eldest.slab);
+        mEvictionCount++;
+        return true;
+    }
+
+    private static int getSlabSize(int length) {
+        int size = MIN_SLAB_SIZE;
+        while (size < length) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    public synchronized long size() {
+        return mAllocatedSize;
+    }
+
+    public synchronized long maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    private static class Entry {
+        public final ByteBuffer slab;
+        public final int length;
+
+        public Entry(ByteBuffer slab, int length) {
+            this.slab = slab;
+            this.length = length;
+        }
+    }
+}
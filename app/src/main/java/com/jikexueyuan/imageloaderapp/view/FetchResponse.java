@@ -0,0 +1,87 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fetcher的请求结果
+ */
+public class FetchResponse implements Closeable {
+
+    public static final int HTTP_OK = 200;
+    public static final int HTTP_NOT_MODIFIED = 304;
+
+    private final int mCode;
+
+    /**
+     * 响应数据,304或请求失败时为null
+     */
+    private final InputStream mBody;
+
+    /**
+     * 数据长度,未知时为-1
+     */
+    private final long mContentLength;
+
+    private final String mEtag;
+    private final String mLastModified;
+
+    /**
+     * 缓存过期时间(毫秒时间戳),服务器未指定时为0,表示一直有效
+     */
+    private final long mExpires;
+
+    public FetchResponse(int code, InputStream body, long contentLength, String etag,
+                         String lastModified, long expires) {
+        mCode = code;
+        mBody = body;
+        mContentLength = contentLength;
+        mEtag = etag;
+        mLastModified = lastModified;
+        mExpires = expires;
+    }
+
+    public int getCode() {
+        return mCode;
+    }
+
+    public boolean isSuccessful() {
+        return mCode >= 200 && mCode < 300 && mBody != null;
+    }
+
+    public boolean isNotModified() {
+        return mCode == HTTP_NOT_MODIFIED;
+    }
+
+    public InputStream getBody() {
+        return mBody;
+    }
+
+    public long getContentLength() {
+        return mContentLength;
+    }
+
+    public String getEtag() {
+        return mEtag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public long getExpires() {
+        return mExpires;
+    }
+
+    /**
+     * 关闭数据流;数据已完整读取时底层连接可以被复用
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (mBody != null) {
+            mBody.close();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import java.io.IOException;
+
+/**
+ * 获取图片原始数据,ImageLoader通过它访问网络
+ * 默认实现为HttpUrlConnectionFetcher,可以通过ImageLoader.Builder替换,例如测试时指向本地服务
+ */
+public interface Fetcher {
+
+    /**
+     * 请求图片数据,在工作线程中调用
+     * @param url
+     * @param cached 磁盘缓存中已有条目的信息,带有ETag/Last-Modified时应发送条件请求;没有缓存时为null
+     * @return 响应,调用方读完数据后需close
+     * @throws IOException
+     */
+    FetchResponse fetch(String url, DiskCacheMetadata cached) throws IOException;
+}
@@ -0,0 +1,126 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * 基于HttpURLConnection的默认Fetcher
+ *
+ * 不调用disconnect():数据读完并关闭流后,连接会回到系统的keep-alive连接池,
+ * 之后访问同一主机的请求可以直接复用,省去TCP/TLS握手
+ * 磁盘缓存中已有条目时携带If-None-Match/If-Modified-Since,服务器返回304时不必重新下载
+ */
+public class HttpUrlConnectionFetcher implements Fetcher {
+
+    /**
+     * 默认连接超时,单位毫秒
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+
+    /**
+     * 默认读取超时,单位毫秒
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 20 * 1000;
+
+    private static final String MAX_AGE = "max-age=";
+
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+
+    public HttpUrlConnectionFetcher() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * @param connectTimeout 连接超时,单位毫秒
+     * @param readTimeout 读取超时,单位毫秒
+     */
+    public HttpUrlConnectionFetcher(int connectTimeout, int readTimeout) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+    }
+
+    @Override
+    public FetchResponse fetch(String url, DiskCacheMetadata cached) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(mConnectTimeout);
+        connection.setReadTimeout(mReadTimeout);
+        if (cached != null) {
+            if (cached.etag != null) {
+                connection.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+        }
+
+        int code;
+        try {
+            code = connection.getResponseCode();
+        } catch (IOException e) {
+            //连接已不可用,不能放回连接池
+            connection.disconnect();
+            throw e;
+        }
+
+        InputStream body = null;
+        if (code >= 200 && code < 300) {
+            body = connection.getInputStream();
+        } else {
+            //读完并关闭错误响应,连接才能被复用
+            drain(code >= 400 ? connection.getErrorStream() : connection.getInputStream());
+        }
+        return new FetchResponse(code, body, connection.getContentLength(),
+                connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"),
+                getExpires(connection));
+    }
+
+    /**
+     * 根据Cache-Control和Expires计算缓存过期时间
+     * @param connection
+     * @return 毫秒时间戳,未指定时为0
+     */
+    private static long getExpires(HttpURLConnection connection) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    //每次从磁盘读取时都重新验证
+                    return System.currentTimeMillis();
+                }
+                if (directive.startsWith(MAX_AGE)) {
+                    try {
+                        long maxAge = Long.parseLong(directive.substring(MAX_AGE.length()));
+                        return System.currentTimeMillis() + maxAge * 1000;
+                    } catch (NumberFormatException e) {
+                        //忽略无法识别的值
+                    }
+                }
+            }
+        }
+        return connection.getExpiration();
+    }
+
+    private static void drain(InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[IoUtils.BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                //丢弃
+            }
+        } catch (IOException e) {
+            //连接无法复用,忽略
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                //忽略
+            }
+        }
+    }
+}
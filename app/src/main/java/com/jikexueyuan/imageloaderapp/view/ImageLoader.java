@@ -1,6 +1,8 @@
 package com.jikexueyuan.imageloaderapp.view;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Build;
@@ -9,27 +11,48 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.StatFs;
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.DisplayMetrics;
 import android.util.Log;
-import android.util.LruCache;
+import android.view.Choreographer;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 
 import com.jakewharton.disklrucache.DiskLruCache;
 import com.jikexueyuan.imageloaderapp.R;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -37,6 +60,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 自定义图片缓存ImageLoader
+ * 每个实例都会注册系统回调并打开磁盘缓存,不再使用时需要调用close()释放
  * Created by wangshijie on 2016/3/7.
  */
 public class ImageLoader {
@@ -51,14 +75,20 @@ public class ImageLoader {
     private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
 
     /**
-     * 核心线程数
+     * 磁盘读取/解码线程数,属于CPU密集型
      */
-    private static final int CORE_POOL_SIZE = CPU_COUNT + 1;
+    private static final int DISK_THREAD_COUNT = CPU_COUNT + 1;
 
     /**
-     * 最大容量
+     * 网络下载线程数,大部分时间在等待IO
      */
-    private static final int MAXIMUM_POOL_SIZE = CPU_COUNT * 2 + 1;
+    private static final int NETWORK_THREAD_COUNT = CPU_COUNT * 2 + 1;
+
+    /**
+     * 同步加载时等待其他线程下载同一张图片的最长时间,单位秒
+     * 线程池中的加载不等待,见NetworkTask
+     */
+    private static final long DOWNLOAD_WAIT_TIMEOUT = 30L;
 
     /**
      * 线程闲置超时时长
@@ -68,319 +98,2455 @@ public class ImageLoader {
     private static final int TAG_KEY_URI = R.id.imageloader_uri;
 
     /**
-     * 磁盘缓存容量
+     * 磁盘缓存容量占可用空间的百分比,结果限制在MIN_DISK_CACHE_SIZE和MAX_DISK_CACHE_SIZE之间
+     */
+    private static final int DISK_CACHE_PERCENT = 10;
+    private static final long MIN_DISK_CACHE_SIZE = 1024 * 1024 * 10;
+    private static final long MAX_DISK_CACHE_SIZE = 1024 * 1024 * 100;
+
+    /**
+     * 可用空间不足时退而使用的最小容量,仍比没有磁盘缓存、每次都重新下载好
+     */
+    private static final long FALLBACK_DISK_CACHE_SIZE = 1024 * 1024;
+
+    /**
+     * 磁盘缓存的分片数,按key的第一个十六进制字符分片
+     */
+    private static final int DISK_CACHE_SHARD_COUNT = 4;
+
+    /**
+     * 升级前的磁盘缓存移到这个子目录,只读,命中的条目逐个迁移到分片中
+     */
+    private static final String LEGACY_DISK_CACHE_DIR = "legacy";
+
+    /**
+     * DiskLruCache允许的key最大长度,超过的旧key不可能存在于磁盘缓存中
+     */
+    private static final int LEGACY_KEY_MAX_LENGTH = 64;
+
+    /**
+     * DiskLruCache日志的前两行,与DiskLruCache.MAGIC/VERSION_1相同(它们不是public的)
+     */
+    private static final String JOURNAL_MAGIC = "libcore.io.DiskLruCache";
+    private static final String JOURNAL_VERSION = "1";
+
+    /**
+     * 保存最近显示过的图片key的文件,位于磁盘缓存目录下
      */
-    private static final long DISK_CACHE_SIZE = 1024 * 1024 * 50;
+    private static final String WARM_START_FILE = "warm_start";
 
     /**
      * 读写缓存容量
      */
-    private static final int IO_BUFFER_SIZE = 1024 * 1024 * 8;
+    private static final int IO_BUFFER_SIZE = IoUtils.BUFFER_SIZE;
+
+    /**
+     * 读写缓冲区复用池的容量
+     */
+    private static final int BYTE_ARRAY_POOL_SIZE = 1024 * 512;
+
+    /**
+     * 读写缓冲区复用池,所有下载线程共用
+     */
+    private static final ByteArrayPool sByteArrayPool = new ByteArrayPool(BYTE_ARRAY_POOL_SIZE);
+
+    /**
+     * 编码数据内存缓存容量,位于堆外
+     */
+    private static final long ENCODED_CACHE_SIZE = 1024 * 1024 * 8;
+
+    /**
+     * 磁盘缓存版本号,缓存格式变化时递增,DiskLruCache会清空旧的缓存
+     * 分片之前保存在缓存目录下的旧缓存不会被清空,见openLegacyDiskCache
+     */
+    private static final int DISK_CACHE_VERSION = 2;
+
+    /**
+     * 每个磁盘缓存条目的value个数:图片数据和图片信息
+     */
+    private static final int DISK_CACHE_VALUE_COUNT = 2;
+
+    /**
+     * 磁盘缓存索引
+     */
+    private static final int DISK_CACHE_INDEX = 0;
+
+    /**
+     * 图片信息(DiskCacheMetadata)的磁盘缓存索引
+     */
+    private static final int DISK_CACHE_METADATA_INDEX = 1;
+
+    /**
+     * 内容索引条目key的前缀,索引按图片数据的MD5查找数据条目
+     * 不按ETag索引:强ETag只在同一url内可比较,不同文件的ETag可能相同(如nginx由修改时间和长度生成),
+     * 必须读取响应数据、比较MD5后才能确定是同一图片
+     */
+    private static final String INDEX_CONTENT = "content:";
+
+    /**
+     * 原始宽高缓存的条目数
+     */
+    private static final int IMAGE_SIZE_CACHE_COUNT = 512;
+
+    /**
+     * 累计多少次提交后刷新一次磁盘缓存日志
+     */
+    private static final int JOURNAL_FLUSH_COMMITS = 20;
+
+    /**
+     * 提交后最多延迟多久刷新磁盘缓存日志,单位毫秒
+     */
+    private static final long JOURNAL_FLUSH_DELAY = 1000L;
+
+    /**
+     * 渐进式解码:至少下载了多少字节才解码第一张预览图
+     */
+    private static final long PROGRESSIVE_MIN_BYTES = 64 * 1024;
+
+    /**
+     * 渐进式解码:两张预览图之间的最短间隔,单位毫秒
+     */
+    private static final long PROGRESSIVE_INTERVAL = 300L;
+
+    /**
+     * 渐进式解码:预览图的采样率是最终图的几倍,降低每次解码的开销
+     */
+    private static final int PROGRESSIVE_SAMPLE_FACTOR = 2;
+
+    /**
+     * 缓存的url到key映射的条目数
+     */
+    private static final int URL_KEY_CACHE_COUNT = 256;
+
+    /**
+     * 是否使用了DiskLruCache
+     */
+    private volatile boolean mIsDiskLruCacheCreated = false;
+
+    /**
+     * 磁盘缓存在后台打开,打开结束(无论成功与否)后计数归零
+     */
+    private final CountDownLatch mDiskCacheReady = new CountDownLatch(1);
+
+    /**
+     * 磁盘缓存打开前需要读写磁盘的任务,打开后重新提交
+     */
+    private final List<PriorityTask> mPendingDiskTasks = new ArrayList<PriorityTask>();
+
+    /**
+     * 启动时预读最近显示过的多少张图片,为0时不预读
+     */
+    private final int mWarmStartCount;
+
+    /**
+     * 最近绑定的磁盘缓存key,按访问顺序排列,只在主线程访问
+     */
+    private final LinkedHashMap<String, Boolean> mRecentKeys;
+
+    /**
+     * 上下文
+     */
+    private Context mContext;
+
+    /**
+     * bitmap复用池,内存缓存淘汰且不再显示的bitmap会放入这里,解码时通过inBitmap复用
+     */
+    private BitmapPool mBitmapPool;
+
+    /**
+     * url到缓存key的转换
+     */
+    private final UrlKeyGenerator mUrlKeyGenerator;
+
+    /**
+     * 图片压缩功能类
+     */
+    private ImageResizer mImageResizer;
+
+    /**
+     * bitmap的引用计数,key为bitmap
+     * 正在显示或即将显示的bitmap不能放入复用池,否则会被下一次解码覆盖
+     * 计数本身是原子的,这个锁只保护map的查找和增删,锁内不做内存缓存的放入和淘汰
+     * 从内存缓存取出时直接使用条目中的BitmapRef,不经过这里
+     */
+    private final WeakHashMap<Bitmap, BitmapRef> mBitmapRefs = new WeakHashMap<Bitmap, BitmapRef>();
+
+    /**
+     * 已被内存缓存淘汰、但仍在显示(引用计数不为0)的bitmap,key为内存缓存key
+     * 内存缓存未命中时先在这里查找,同一张图片不必再解码一份;只弱引用,不影响回收
+     * 由mActiveResources自身加锁
+     */
+    private final HashMap<String, WeakReference<Bitmap>> mActiveResources = new HashMap<String, WeakReference<Bitmap>>();
+
+    /**
+     * mActiveResources超过这个数量时清理已被回收的引用
+     */
+    private static final int ACTIVE_RESOURCES_PRUNE_SIZE = 64;
+
+    /**
+     * 每个imageView当前显示的bitmap,只在主线程访问
+     */
+    private final WeakHashMap<ImageView, Bitmap> mDisplayedBitmaps = new WeakHashMap<ImageView, Bitmap>();
+
+    /**
+     * 内存缓存,查找不加锁,主线程的查找不会被工作线程的写入阻塞
+     */
+    private ClockCache<String, CachedBitmap> mMemoryCache;
+
+    /**
+     * 编码数据(原始字节)的内存缓存,位于bitmap内存缓存与磁盘缓存之间
+     */
+    private EncodedMemoryCache mEncodedMemoryCache = new EncodedMemoryCache(ENCODED_CACHE_SIZE);
+
+    /**
+     * 图片原始宽高缓存,key为磁盘缓存key
+     * 用于在解码前就能算出某个请求尺寸对应的采样率,从而定位内存缓存中的条目
+     */
+    private ClockCache<String, int[]> mImageSizeCache = new ClockCache<String, int[]>(IMAGE_SIZE_CACHE_COUNT);
+
+    /**
+     * 别名条目的key到保存图片数据的条目key,读取磁盘缓存时记录
+     * 内存缓存、编码数据缓存和原始宽高都按数据所在条目的key保存,不同url下的相同图片只解码一次
+     */
+    private final ClockCache<String, String> mDataKeys = new ClockCache<String, String>(IMAGE_SIZE_CACHE_COUNT);
+
+    /**
+     * 磁盘缓存,按key分成多个DiskLruCache
+     */
+    private volatile ShardedDiskCache mDiskLruCache;
+
+    /**
+     * 升级前的磁盘缓存,没有时为null
+     */
+    private volatile DiskLruCache mLegacyDiskCache;
+
+    /**
+     * 旧缓存每个条目的value个数,为1时没有图片信息
+     */
+    private int mLegacyValueCount;
+
+    /**
+     * 磁盘缓存日志的批量刷新
+     */
+    private volatile DiskCacheFlusher mDiskCacheFlusher;
+
+    /**
+     * 是否已调用close()
+     */
+    private volatile boolean mClosed;
+
+    /**
+     * 网络请求
+     */
+    private final Fetcher mFetcher;
+
+    /**
+     * 是否在下载过程中显示预览图
+     */
+    private final boolean mProgressiveDecode;
+
+    /**
+     * 内存紧张时,是否把被淘汰bitmap的原始字节从磁盘读入编码数据缓存
+     */
+    private final boolean mTrimToEncoded;
+
+    /**
+     * 请求未指定解码策略时使用的策略
+     */
+    private final DecodeOptions mDecodeOptions;
+
+    /**
+     * 内存缓存和复用池的原始容量,内存紧张时按比例缩小,之后逐步恢复
+     */
+    private int mMemoryCacheMaxSize;
+    private long mBitmapPoolMaxSize;
+
+    /**
+     * 根据系统内存紧张程度调整各级内存缓存的容量
+     */
+    private final MemoryTrimmer mMemoryTrimmer = new MemoryTrimmer(new MemoryTrimmer.Target() {
+        @Override
+        public void onCapacityChanged(int percent) {
+            setMemoryCapacity(percent);
+        }
+    });
+
+    /**
+     * 内存紧张时最多把多少个被淘汰的图片读入编码数据缓存
+     */
+    private static final int TRIM_TO_ENCODED_MAX_COUNT = 64;
+
+    /**
+     * 运行统计
+     */
+    private final LoaderStats mStats = new LoaderStats();
+
+    /**
+     * 定期输出统计的间隔,单位毫秒,为0时不输出
+     */
+    private final long mStatsInterval;
+
+    private final List<LoaderStats.Listener> mStatsListeners = new CopyOnWriteArrayList<LoaderStats.Listener>();
+
+    /**
+     * 已提交重新验证的磁盘缓存key,避免同一条目重复提交
+     */
+    private final HashSet<String> mRevalidatingKeys = new HashSet<String>();
+
+    /**
+     * 正在加载中的请求表,key为缓存key
+     * 同一url的并发请求挂到同一个加载任务上,避免重复下载、重复解码以及DiskLruCache的编辑冲突
+     */
+    private final HashMap<String, InFlightLoad> mInFlightLoads = new HashMap<String, InFlightLoad>();
+
+    /**
+     * 每个imageView当前所等待的加载任务,只在主线程访问
+     * imageView重新绑定时据此取消旧的任务
+     */
+    private final WeakHashMap<ImageView, InFlightLoad> mViewLoads = new WeakHashMap<ImageView, InFlightLoad>();
+
+    /**
+     * 尚未布局、正在等待得到大小的imageView,只在主线程访问
+     */
+    private final WeakHashMap<ImageView, PendingSize> mPendingSizes = new WeakHashMap<ImageView, PendingSize>();
+
+    /**
+     * 正在下载的磁盘缓存key,同一图片的其他下载请求在其完成后再读取磁盘缓存,而不是读取写了一半的条目
+     */
+    private final HashMap<String, ActiveDownload> mActiveDownloads = new HashMap<String, ActiveDownload>();
+
+    /**
+     * 是否暂停预加载,列表快速滑动(fling)时暂停
+     */
+    private volatile boolean mPrefetchPaused;
+
+    /**
+     * 暂停期间被推迟执行的预加载任务,恢复时重新提交
+     */
+    private final List<PriorityTask> mPausedPrefetchTasks = new ArrayList<PriorityTask>();
+
+    /**
+     * 创建线程工厂
+     * @param name 线程名前缀
+     * @return
+     */
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "ImageLoader-" + name + "#" + mCount.getAndIncrement());
+            }
+        };
+    }
+
+    public ImageLoader(Context context) {
+        this(new Builder(context));
+    }
+
+    private ImageLoader(Builder builder) {
+        mContext = builder.mContext.getApplicationContext();
+        mFetcher = builder.mFetcher != null ? builder.mFetcher : new HttpUrlConnectionFetcher();
+        mProgressiveDecode = builder.mProgressiveDecode;
+        mTrimToEncoded = builder.mTrimToEncoded;
+        mDecodeOptions = builder.mDecodeOptions;
+        mStatsInterval = builder.mStatsInterval;
+        mWarmStartCount = builder.mWarmStartCount;
+        mUrlKeyGenerator = new UrlKeyGenerator(URL_KEY_CACHE_COUNT,builder.mKeyStrategy);
+        mRecentKeys = new LinkedHashMap<String, Boolean>(16,0.75f,true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > mWarmStartCount;
+            }
+        };
+
+        /**内存缓存总容量为当前进程可用内存的1/8 单位KB*/
+        int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
+        int cacheSize = maxMemory / 8;
+        mMemoryCacheMaxSize = cacheSize;
+        mMemoryCache = new ClockCache<String, CachedBitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, CachedBitmap value) {
+                //计算缓存对象(bitmap)的大小,单位需要同总容量一致
+                return value.bitmap.getRowBytes() * value.bitmap.getHeight() / 1024;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, CachedBitmap oldValue, CachedBitmap newValue) {
+                //每次放入都为内存缓存增加了一个引用,被同一条目替换时也要释放
+                onBitmapRemovedFromMemoryCache(key,oldValue);
+            }
+        };
+
+        /**复用池容量为当前进程可用内存的1/16 单位B*/
+        mBitmapPoolMaxSize = Runtime.getRuntime().maxMemory() / 16;
+        mBitmapPool = new BitmapPool(mBitmapPoolMaxSize);
+        mImageResizer = new ImageResizer(mBitmapPool);
+        //打开磁盘缓存需要读取整个日志,放到后台进行,不阻塞调用线程(一般是主线程)
+        DISK_EXECUTOR.execute(new PriorityTask(PriorityTask.PRIORITY_HIGH) {
+            @Override
+            public void run() {
+                initDiskCache();
+            }
+        });
+
+        mContext.registerComponentCallbacks(mComponentCallbacks);
+        if(mStatsInterval > 0){
+            mMainHandler.postDelayed(mStatsReporter,mStatsInterval);
+        }
+    }
+
+    /**
+     * 打开磁盘缓存,在DISK_EXECUTOR中执行
+     * 结束后重新提交等待中的任务,之后再预读最近显示过的图片
+     */
+    private void initDiskCache() {
+        //优先使用外部存储,打开失败时退回内部存储
+        File diskCacheDir = getDiskCacheDir(mContext, "bitmap");
+        ShardedDiskCache diskCache = openDiskCache(diskCacheDir);
+        if(diskCache == null && mContext.getCacheDir() != null){
+            File internalDir = new File(mContext.getCacheDir(),"bitmap");
+            if(!internalDir.equals(diskCacheDir)){
+                diskCache = openDiskCache(internalDir);
+            }
+        }
+        if(diskCache != null){
+            mDiskCacheFlusher = new DiskCacheFlusher(diskCache,JOURNAL_FLUSH_COMMITS,JOURNAL_FLUSH_DELAY);
+            mDiskLruCache = diskCache;
+            mIsDiskLruCacheCreated = true;//使用了DiskLruCache的标示
+        }
+
+        List<PriorityTask> tasks;
+        synchronized (mPendingDiskTasks) {
+            mDiskCacheReady.countDown();
+            tasks = new ArrayList<PriorityTask>(mPendingDiskTasks);
+            mPendingDiskTasks.clear();
+        }
+        for (PriorityTask task : tasks) {
+            DISK_EXECUTOR.execute(task);
+        }
+
+        if(diskCache != null && mWarmStartCount > 0){
+            warmStart(diskCache);
+        }
+    }
+
+    /**
+     * 磁盘缓存打开前推迟需要读写磁盘的任务
+     * @param task
+     * @return 是否已推迟
+     */
+    private boolean deferUntilDiskCacheReady(PriorityTask task) {
+        if(mDiskCacheReady.getCount() == 0){
+            return false;
+        }
+        synchronized (mPendingDiskTasks) {
+            if(mDiskCacheReady.getCount() == 0){
+                return false;
+            }
+            mPendingDiskTasks.add(task);
+            return true;
+        }
+    }
+
+    /**
+     * 同步加载时等待磁盘缓存打开
+     */
+    private void awaitDiskCacheReady() {
+        try {
+            mDiskCacheReady.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 把上次保存的最近显示过的图片从磁盘读入编码数据缓存,并记录原始宽高
+     * 启动后第一屏的图片不必再等待读取磁盘
+     * @param diskCache
+     */
+    private void warmStart(ShardedDiskCache diskCache) {
+        File file = new File(diskCache.getDirectory(),WARM_START_FILE);
+        if(!file.exists()){
+            return;
+        }
+        List<String> keys = new ArrayList<String>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),"UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null && keys.size() < mWarmStartCount) {
+                if(!TextUtils.isEmpty(line)){
+                    keys.add(line);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG,"read warm start keys failed:" + e);
+        } finally {
+            if(reader != null){
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        int loaded = 0;
+        for (String key : keys) {
+            try {
+                if(readIntoEncodedCache(key)){
+                    loaded++;
+                }
+            } catch (IOException e) {
+                Log.w(TAG,"warm start failed:" + e);
+            }
+        }
+        Log.i(TAG,"warm start " + loaded + "/" + keys.size());
+    }
+
+    /**
+     * 保存最近绑定的key,下次启动时预读;在主线程调用,写文件在后台进行
+     */
+    private void saveRecentKeys() {
+        final ShardedDiskCache diskCache = mDiskLruCache;
+        if(mWarmStartCount <= 0 || diskCache == null || mRecentKeys.isEmpty()){
+            return;
+        }
+        //访问顺序从旧到新,保存时最新的在前
+        final List<String> keys = new ArrayList<String>(mRecentKeys.keySet());
+        Collections.reverse(keys);
+        DISK_EXECUTOR.execute(new PriorityTask(PriorityTask.PRIORITY_LOW) {
+            @Override
+            public void run() {
+                File file = new File(diskCache.getDirectory(),WARM_START_FILE);
+                File tmp = new File(diskCache.getDirectory(),WARM_START_FILE + ".tmp");
+                Writer writer = null;
+                try {
+                    writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp),"UTF-8"));
+                    for (String key : keys) {
+                        writer.write(key);
+                        writer.write('\n');
+                    }
+                    writer.close();
+                    writer = null;
+                    //先写临时文件再重命名,避免写到一半时被杀死留下不完整的文件
+                    if(!tmp.renameTo(file)){
+                        Log.w(TAG,"can not rename " + tmp);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG,"save warm start keys failed:" + e);
+                } finally {
+                    if(writer != null){
+                        try {
+                            writer.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 系统回调,应用退到后台时刷新磁盘缓存日志,并保存最近显示过的图片供下次启动预读
+     */
+    private final ComponentCallbacks2 mComponentCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if(level >= TRIM_MEMORY_UI_HIDDEN){
+                flushDiskCache();
+                saveRecentKeys();
+            }
+            mMemoryTrimmer.onTrimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            mMemoryTrimmer.onLowMemory();
+        }
+    };
+
+    /**
+     * 按原始容量的百分比设置各级内存缓存的容量,在主线程调用
+     * 编码数据缓存比bitmap小得多,只缩小bitmap缩小比例的一半,完全清空时除外
+     * @param percent
+     */
+    private void setMemoryCapacity(int percent) {
+        List<String> evictedKeys = null;
+        if(mTrimToEncoded && percent > 0 && percent < 100 && mIsDiskLruCacheCreated){
+            evictedKeys = new ArrayList<String>(mMemoryCache.snapshot().keySet());
+        }
+
+        if(percent == 0){
+            mMemoryCache.evictAll();
+        }
+        mMemoryCache.resize(Math.max(1,(int) ((long) mMemoryCacheMaxSize * percent / 100)));
+        mBitmapPool.resize(mBitmapPoolMaxSize * percent / 100);
+        int encodedPercent = percent == 0 ? 0 : (percent + 100) / 2;
+        mEncodedMemoryCache.resize(ENCODED_CACHE_SIZE * encodedPercent / 100);
+        Log.i(TAG,"memory capacity " + percent + "%");
+
+        if(evictedKeys != null){
+            evictedKeys.removeAll(mMemoryCache.snapshot().keySet());
+            moveToEncodedCache(evictedKeys);
+        }
+    }
+
+    /**
+     * 在后台把被淘汰的bitmap对应的原始字节读入编码数据缓存
+     * @param memoryKeys 内存缓存key,格式为 磁盘缓存key_解码参数
+     */
+    private void moveToEncodedCache(List<String> memoryKeys) {
+        final List<String> keys = new ArrayList<String>();
+        for (String memoryKey : memoryKeys) {
+            int index = memoryKey.indexOf('_');
+            String key = index > 0 ? memoryKey.substring(0,index) : memoryKey;
+            if(!keys.contains(key)){
+                keys.add(key);
+            }
+            if(keys.size() >= TRIM_TO_ENCODED_MAX_COUNT){
+                break;
+            }
+        }
+        if(keys.isEmpty()){
+            return;
+        }
+        DISK_EXECUTOR.execute(new PriorityTask(PriorityTask.PRIORITY_LOW) {
+            @Override
+            public void run() {
+                for (String key : keys) {
+                    try {
+                        readIntoEncodedCache(key);
+                    } catch (IOException e) {
+                        Log.w(TAG,"moveToEncodedCache failed:" + e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 将磁盘缓存条目的原始字节读入编码数据缓存,已存在或太大时跳过
+     * 同时记录保存在图片信息中的原始宽高
+     * @param key 磁盘缓存key
+     * @return 是否读入
+     * @throws IOException
+     */
+    private boolean readIntoEncodedCache(String key) throws IOException {
+        if(mEncodedMemoryCache.contains(getDataKey(key))){
+            return false;
+        }
+        DiskEntry entry = getDiskEntry(key);
+        if(entry == null){
+            return false;
+        }
+        try {
+            if(mImageSizeCache.get(entry.dataKey) == null && entry.metadata.hasSize()){
+                mImageSizeCache.put(entry.dataKey,getImageSize(entry.metadata));
+            }
+            long length = entry.snapshot.getLength(DISK_CACHE_INDEX);
+            if(length <= 0 || length > mEncodedMemoryCache.maxEntrySize()){
+                return false;
+            }
+            byte[] data = readFully(entry.snapshot.getInputStream(DISK_CACHE_INDEX),(int) length);
+            if(data == null){
+                return false;
+            }
+            mEncodedMemoryCache.put(entry.dataKey,ByteBuffer.wrap(data,0,(int) length));
+            sByteArrayPool.returnBuf(data);
+            return true;
+        } finally {
+            entry.snapshot.close();
+        }
+    }
+
+    /**
+     * 获取当前的运行统计
+     * @return
+     */
+    public LoaderStats.Snapshot getStats() {
+        LoaderStats.Snapshot snapshot = mStats.snapshot();
+        snapshot.diskQueueDepth = DISK_EXECUTOR.getQueue().size();
+        snapshot.diskActiveCount = DISK_EXECUTOR.getActiveCount();
+        snapshot.networkQueueDepth = NETWORK_EXECUTOR.getQueue().size();
+        snapshot.networkActiveCount = NETWORK_EXECUTOR.getActiveCount();
+        synchronized (mInFlightLoads) {
+            snapshot.inFlightLoads = mInFlightLoads.size();
+        }
+        snapshot.memoryCacheSize = mMemoryCache.size();
+        snapshot.memoryCacheMaxSize = mMemoryCache.maxSize();
+        snapshot.memoryCacheEvictions = mMemoryCache.evictionCount();
+        snapshot.encodedCacheSize = mEncodedMemoryCache.size();
+        snapshot.encodedCacheMaxSize = mEncodedMemoryCache.maxSize();
+        snapshot.encodedCacheEvictions = mEncodedMemoryCache.evictionCount();
+        snapshot.rewrittenUrls = mUrlKeyGenerator.getRewrittenCount();
+        snapshot.mergedUrls = mUrlKeyGenerator.getMergedCount();
+        return snapshot;
+    }
+
+    /**
+     * 清空运行统计
+     */
+    public void resetStats() {
+        mStats.reset();
+    }
+
+    /**
+     * 添加统计回调,按Builder.statsInterval设置的间隔在主线程中调用
+     * @param listener
+     */
+    public void addStatsListener(LoaderStats.Listener listener) {
+        mStatsListeners.add(listener);
+    }
+
+    public void removeStatsListener(LoaderStats.Listener listener) {
+        mStatsListeners.remove(listener);
+    }
+
+    /**
+     * 定期输出统计,close()之后不再继续
+     */
+    private final Runnable mStatsReporter = new Runnable() {
+        @Override
+        public void run() {
+            if(mClosed){
+                return;
+            }
+            LoaderStats.Snapshot snapshot = getStats();
+            Log.i(TAG,snapshot.toString());
+            for (LoaderStats.Listener listener : mStatsListeners) {
+                listener.onStats(snapshot);
+            }
+            mMainHandler.postDelayed(this,mStatsInterval);
+        }
+    };
+
+    /**
+     * 记录内存缓存的查找结果
+     * @param bitmap 查找结果,可以为null
+     */
+    private void recordMemoryLookup(Bitmap bitmap) {
+        if(bitmap != null){
+            mStats.recordHit(LoaderStats.TIER_MEMORY);
+            mStats.recordBytes(LoaderStats.TIER_MEMORY,bitmap.getRowBytes() * bitmap.getHeight());
+        } else {
+            mStats.recordMiss(LoaderStats.TIER_MEMORY);
+        }
+    }
+
+    /**
+     * 在后台线程中刷新磁盘缓存日志
+     */
+    public void flushDiskCache() {
+        if(mDiskCacheFlusher != null){
+            mDiskCacheFlusher.flushAsync();
+        }
+    }
+
+    /**
+     * 释放ImageLoader持有的资源,在主线程中调用,例如Activity的onDestroy
+     * 注销系统回调并停止定期统计,然后在后台线程中刷新并关闭磁盘缓存,之后的加载不再读写磁盘缓存
+     * 应在不再发起加载之后调用,重复调用无效
+     */
+    public void close() {
+        if(mClosed){
+            return;
+        }
+        mClosed = true;
+        mContext.unregisterComponentCallbacks(mComponentCallbacks);
+        mMainHandler.removeCallbacks(mStatsReporter);
+        mStatsListeners.clear();
+        PriorityTask task = new PriorityTask(PriorityTask.PRIORITY_HIGH) {
+            @Override
+            public void run() {
+                closeDiskCache();
+            }
+        };
+        //磁盘缓存还没打开时,等打开后再关闭
+        if(!deferUntilDiskCacheReady(task)){
+            DISK_EXECUTOR.execute(task);
+        }
+    }
+
+    /**
+     * 关闭磁盘缓存,在DISK_EXECUTOR中执行
+     * DiskLruCache关闭时会写入日志,不需要再单独刷新
+     */
+    private void closeDiskCache() {
+        ShardedDiskCache diskCache = mDiskLruCache;
+        DiskCacheFlusher flusher = mDiskCacheFlusher;
+        DiskLruCache legacyCache = mLegacyDiskCache;
+        mIsDiskLruCacheCreated = false;
+        mDiskLruCache = null;
+        mDiskCacheFlusher = null;
+        mLegacyDiskCache = null;
+        if(flusher != null){
+            flusher.shutdown();
+        }
+        try {
+            if(diskCache != null){
+                diskCache.close();
+            }
+            if(legacyCache != null){
+                legacyCache.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG,"closeDiskCache failed:" + e);
+        }
+    }
+
+    /**
+     * 构造器,每次调用都会创建新的实例,不再使用时需要调用close()
+     * @param context
+     * @return
+     */
+    public static ImageLoader build(Context context){
+        return new Builder(context).build();
+    }
+
+    /**
+     * ImageLoader的可选配置
+     */
+    public static class Builder {
+        private final Context mContext;
+        private Fetcher mFetcher;
+        private boolean mProgressiveDecode;
+        private boolean mTrimToEncoded;
+        private DecodeOptions mDecodeOptions = DecodeOptions.ORIGINAL;
+        private int mWarmStartCount;
+        private long mStatsInterval;
+        private KeyStrategy mKeyStrategy;
+
+        public Builder(Context context) {
+            mContext = context;
+        }
+
+        /**
+         * 设置网络请求的实现,默认为HttpUrlConnectionFetcher
+         * @param fetcher
+         * @return
+         */
+        public Builder fetcher(Fetcher fetcher) {
+            mFetcher = fetcher;
+            return this;
+        }
+
+        /**
+         * 下载较大的图片时,边写入磁盘缓存边解码预览图显示,缩短慢速网络下的等待时间
+         * @param progressiveDecode
+         * @return
+         */
+        public Builder progressiveDecode(boolean progressiveDecode) {
+            mProgressiveDecode = progressiveDecode;
+            return this;
+        }
+
+        /**
+         * 内存紧张缩小bitmap缓存时,把被淘汰图片的原始字节从磁盘读入编码数据缓存,
+         * 同样的内存可以保留更多图片,回到列表时不必读取磁盘
+         * @param trimToEncoded
+         * @return
+         */
+        public Builder trimToEncoded(boolean trimToEncoded) {
+            mTrimToEncoded = trimToEncoded;
+            return this;
+        }
+
+        /**
+         * 默认的解码策略,默认为DecodeOptions.ORIGINAL
+         * 列表中的缩略图可以使用DecodeOptions.AUTO:JPEG以RGB_565解码,并精确缩放到ImageView的大小
+         * @param decodeOptions
+         * @return
+         */
+        public Builder decodeOptions(DecodeOptions decodeOptions) {
+            mDecodeOptions = decodeOptions;
+            return this;
+        }
+
+        /**
+         * 退到后台时记录最近显示过的count张图片,下次启动打开磁盘缓存后预读到编码数据缓存
+         * @param count 为0时不记录也不预读
+         * @return
+         */
+        public Builder warmStart(int count) {
+            mWarmStartCount = count;
+            return this;
+        }
+
+        /**
+         * 定期将统计输出到日志并回调StatsListener
+         * @param intervalMillis 间隔,单位毫秒,为0时不输出
+         * @return
+         */
+        public Builder statsInterval(long intervalMillis) {
+            mStatsInterval = intervalMillis;
+            return this;
+        }
+
+        /**
+         * 计算缓存key前规范化url,如去掉鉴权token等每次都会变化的参数,同一图片的不同url可以命中同一缓存
+         * 规范化效果见LoaderStats.Snapshot的rewrittenUrls/mergedUrls
+         * @param keyStrategy 默认为null,直接使用原始url
+         * @return
+         */
+        public Builder keyStrategy(KeyStrategy keyStrategy) {
+            mKeyStrategy = keyStrategy;
+            return this;
+        }
+
+        public ImageLoader build() {
+            return new ImageLoader(this);
+        }
+    }
+
+    /**
+     * 将bitmap添加到内存缓存,并为调用方持有一个引用
+     * 先持有调用方的引用再放入,刚放入就被其他线程淘汰也不会进入复用池
+     * @param key
+     * @param bitmap
+     */
+    void addAndAcquireBitmapToMemoryCache(String key,Bitmap bitmap){
+        BitmapRef ref = acquireBitmap(bitmap);
+        if(!TextUtils.isEmpty(key) && !bitmap.isRecycled() && mMemoryCache.get(key) == null){
+            //内存缓存持有的引用
+            ref.count.incrementAndGet();
+            mMemoryCache.put(key,new CachedBitmap(bitmap,ref));
+        }
+    }
+
+    /**
+     * 获取内存缓存中的bitmap,并为调用方持有一个引用,用完需调用releaseBitmap
+     * 查找和计数都不加锁,主线程的查找不会等待工作线程的放入和淘汰;
+     * 取到的条目恰好被淘汰并进入复用池时增加引用会失败,这时重新查找
+     * @param key
+     * @return
+     */
+    Bitmap getAndAcquireBitmapFromMemCache(String key) {
+        if(TextUtils.isEmpty(key)){
+            return null;
+        }
+        CachedBitmap cached = mMemoryCache.get(key);
+        while (cached != null) {
+            if(cached.ref.tryAcquire()){
+                return cached.bitmap;
+            }
+            CachedBitmap current = mMemoryCache.get(key);
+            cached = current != cached ? current : null;
+        }
+        return getActiveResource(key);
+    }
+
+    /**
+     * 增加bitmap的引用计数,还没有计数(刚解码)的bitmap从1开始
+     * 调用方需已持有该bitmap的引用,或者bitmap刚刚解码得到
+     * @param bitmap
+     * @return
+     */
+    private BitmapRef acquireBitmap(Bitmap bitmap) {
+        synchronized (mBitmapRefs) {
+            BitmapRef ref = mBitmapRefs.get(bitmap);
+            if(ref == null || !ref.tryAcquire()){
+                ref = new BitmapRef();
+                mBitmapRefs.put(bitmap,ref);
+            }
+            return ref;
+        }
+    }
+
+    /**
+     * 释放loadBitmap返回的bitmap的引用,不再使用时必须调用,否则bitmap一直不能进入复用池
+     * 引用全部释放且已被内存缓存淘汰时bitmap进入复用池,之后会被新的解码覆盖,调用后不能再使用
+     * 没有计数的bitmap(如未使用磁盘缓存时直接下载解码的)调用时不做任何事
+     * @param bitmap
+     */
+    public void releaseBitmap(Bitmap bitmap) {
+        BitmapRef ref;
+        synchronized (mBitmapRefs) {
+            ref = mBitmapRefs.get(bitmap);
+        }
+        if(ref != null){
+            releaseBitmap(bitmap,ref);
+        }
+    }
+
+    /**
+     * 减少引用计数,归零时移除计数并放入复用池
+     * @param bitmap
+     * @param ref
+     */
+    private void releaseBitmap(Bitmap bitmap, BitmapRef ref) {
+        int count = ref.count.decrementAndGet();
+        if(count > 0){
+            return;
+        }
+        if(count < 0){
+            Log.w(TAG,"bitmap released too many times");
+            return;
+        }
+        synchronized (mBitmapRefs) {
+            if(mBitmapRefs.get(bitmap) == ref){
+                mBitmapRefs.remove(bitmap);
+            }
+        }
+        removeActiveResource(ref.key,bitmap);
+        mBitmapPool.put(bitmap);
+    }
+
+    /**
+     * 内存缓存释放它持有的引用,仍在显示时记录到mActiveResources
+     * @param key
+     * @param cached
+     */
+    private void onBitmapRemovedFromMemoryCache(String key, CachedBitmap cached) {
+        BitmapRef ref = cached.ref;
+        ref.key = key;
+        if(ref.count.get() > 1){
+            synchronized (mActiveResources) {
+                if(mActiveResources.size() >= ACTIVE_RESOURCES_PRUNE_SIZE){
+                    pruneActiveResources();
+                }
+                mActiveResources.put(key,new WeakReference<Bitmap>(cached.bitmap));
+            }
+        }
+        //引用已全部释放时,releaseBitmap会把上面记录的条目移除
+        releaseBitmap(cached.bitmap,ref);
+    }
+
+    /**
+     * 从仍在显示的bitmap中查找,找到时持有一个引用并放回内存缓存
+     * @param key 内存缓存key
+     * @return
+     */
+    private Bitmap getActiveResource(String key) {
+        Bitmap bitmap;
+        synchronized (mActiveResources) {
+            WeakReference<Bitmap> reference = mActiveResources.remove(key);
+            bitmap = reference != null ? reference.get() : null;
+        }
+        if(bitmap == null){
+            return null;
+        }
+        BitmapRef ref;
+        synchronized (mBitmapRefs) {
+            ref = mBitmapRefs.get(bitmap);
+        }
+        if(ref == null || !ref.tryAcquire()){
+            //引用已全部释放的bitmap已经进入复用池,不能再使用
+            return null;
+        }
+        if(bitmap.isRecycled()){
+            releaseBitmap(bitmap,ref);
+            return null;
+        }
+        ref.count.incrementAndGet();
+        mMemoryCache.put(key,new CachedBitmap(bitmap,ref));
+        Log.d(TAG,"reuse active bitmap,key:" + key);
+        return bitmap;
+    }
+
+    /**
+     * 引用全部释放后移除,key对应的可能已是同一url的另一个bitmap,这时保留
+     * @param key
+     * @param bitmap
+     */
+    private void removeActiveResource(String key, Bitmap bitmap) {
+        if(key == null){
+            return;
+        }
+        synchronized (mActiveResources) {
+            WeakReference<Bitmap> reference = mActiveResources.get(key);
+            if(reference != null && (reference.get() == bitmap || reference.get() == null)){
+                mActiveResources.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 清理已被回收的弱引用,在mActiveResources的锁内调用
+     */
+    private void pruneActiveResources() {
+        Iterator<WeakReference<Bitmap>> iterator = mActiveResources.values().iterator();
+        while (iterator.hasNext()) {
+            if(iterator.next().get() == null){
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 在主线程中为imageView设置bitmap,并更新引用计数
+     * @param imageView
+     * @param bitmap
+     */
+    private void setImageBitmap(ImageView imageView, Bitmap bitmap) {
+        acquireBitmap(bitmap);
+        imageView.setImageBitmap(bitmap);
+        Bitmap previous = mDisplayedBitmaps.put(imageView,bitmap);
+        if(previous != null){
+            releaseBitmap(previous);
+        }
+    }
+
+
+    public void bindBitmap(final String uri,final ImageView imageView){
+        bindBitmap(uri,imageView,mDecodeOptions);
+    }
+
+    /**
+     * 不指定请求尺寸时,按imageView的大小加载
+     * 已经布局或LayoutParams为固定尺寸时立即加载,否则等到第一次绘制前(OnPreDrawListener)得到大小后再加载
+     * @param uri
+     * @param imageView
+     * @param options
+     */
+    public void bindBitmap(final String uri,final ImageView imageView,final DecodeOptions options){
+        int width = getTargetWidth(imageView);
+        int height = getTargetHeight(imageView);
+        if(width > 0 && height > 0){
+            bindBitmap(uri,imageView,width,height,options);
+            return;
+        }
+
+        //先解除之前的绑定,避免复用的imageView在等待期间收到旧url的结果
+        imageView.setTag(TAG_KEY_URI,uri);
+        cancelPendingSize(imageView);
+        cancelStaleLoad(imageView,null);
+        PendingSize pending = new PendingSize(uri,imageView,options);
+        mPendingSizes.put(imageView,pending);
+        imageView.getViewTreeObserver().addOnPreDrawListener(pending);
+    }
+
+    /**
+     * 先从内存缓存中获取bitmap,有则直接使用
+     * 否则在线程池中调用loadBitmap去加载图片
+     * 若该url已有正在进行的加载任务,则直接挂到该任务上等待结果
+     * @param uri
+     * @param imageView
+     * @param reqWidth
+     * @param reqHeight
+     */
+    public void bindBitmap(final String uri,final ImageView imageView,
+                           final int reqWidth,final int reqHeight){
+        bindBitmap(uri,imageView,reqWidth,reqHeight,mDecodeOptions);
+    }
+
+    /**
+     * 按指定的解码策略加载并显示,reqWidth/reqHeight一般为imageView的大小
+     * @param uri
+     * @param imageView
+     * @param reqWidth
+     * @param reqHeight
+     * @param options
+     */
+    public void bindBitmap(final String uri,final ImageView imageView,
+                           final int reqWidth,final int reqHeight,final DecodeOptions options){
+        InFlightLoad load = prepareBind(uri,imageView,reqWidth,reqHeight,options,PriorityTask.nextSequence());
+        if(load != null){
+            DISK_EXECUTOR.execute(new DiskTask(load,false));
+        }
+    }
+
+    /**
+     * 一次绑定一页imageView(如列表首次显示或快速滑动后停下)
+     * 内存缓存命中的立即显示,其余的加载任务使用同一个序号,作为一个整体排在之前提交的任务前面,
+     * 全部登记后再一起提交;结果与其他结果一样按帧合并分发
+     * 请求尺寸未知且imageView尚未布局的,与bindBitmap(uri,imageView)一样等到布局后再单独加载
+     * @param requests
+     */
+    public void bindBitmaps(List<BindRequest> requests) {
+        long sequence = PriorityTask.nextSequence();
+        List<InFlightLoad> loads = new ArrayList<InFlightLoad>(requests.size());
+        for (BindRequest request : requests) {
+            DecodeOptions options = request.options != null ? request.options : mDecodeOptions;
+            int width = request.reqWidth;
+            int height = request.reqHeight;
+            if(width <= 0 || height <= 0){
+                width = getTargetWidth(request.imageView);
+                height = getTargetHeight(request.imageView);
+                if(width <= 0 || height <= 0){
+                    bindBitmap(request.uri,request.imageView,options);
+                    continue;
+                }
+            }
+            InFlightLoad load = prepareBind(request.uri,request.imageView,width,height,options,sequence);
+            if(load != null){
+                loads.add(load);
+            }
+        }
+        for (InFlightLoad load : loads) {
+            DISK_EXECUTOR.execute(new DiskTask(load,false));
+        }
+    }
+
+    /**
+     * 绑定url并查找内存缓存,未命中时登记到加载任务上
+     * @param uri
+     * @param imageView
+     * @param reqWidth
+     * @param reqHeight
+     * @param options
+     * @param sequence 新建任务的排队序号
+     * @return 新建的、需要由调用方提交的任务,命中内存缓存或挂到已有任务上时返回null
+     */
+    private InFlightLoad prepareBind(String uri, ImageView imageView, int reqWidth, int reqHeight,
+                                     DecodeOptions options, long sequence) {
+        //正在绑定图片说明界面已可见,缩小的内存缓存可以开始恢复
+        mMemoryTrimmer.onForeground();
+        cancelPendingSize(imageView);
+        imageView.setTag(TAG_KEY_URI,uri);//每个imageView绑定一个url作为唯一标示
+        if(mWarmStartCount > 0){
+            mRecentKeys.put(hashKeyFormUrl(uri),Boolean.TRUE);
+        }
+        //主线程只做精确查找,需要缩放的情况交给线程池
+        Bitmap bitmap = loadBitmapFromMemCache(uri,reqWidth,reqHeight,options,false);
+        if(bitmap!=null){
+            //未命中时交给线程池再查找一次(允许缩放),在那里记录
+            recordMemoryLookup(bitmap);
+            cancelStaleLoad(imageView,null);
+            setImageBitmap(imageView,bitmap);
+            releaseBitmap(bitmap);
+            return null;
+        }
+
+        //相同url、相同请求尺寸且相同解码策略的请求才能共享结果
+        final String key = hashKeyFormUrl(uri) + "_" + reqWidth + "_" + reqHeight + "_" + options.getKey();
+        InFlightLoad load;
+        boolean created = false;
+        synchronized (mInFlightLoads) {
+            load = mInFlightLoads.get(key);
+            if(load == null || load.priority < PriorityTask.PRIORITY_NORMAL){
+                //预加载任务优先级低且可能不解码,由新的任务取代,预加载任务继续在后台完成
+                load = new InFlightLoad(key,uri,reqWidth,reqHeight,options,
+                        PriorityTask.PRIORITY_NORMAL,true,sequence);
+                mInFlightLoads.put(key,load);
+                created = true;
+            }
+            //已有相同url的任务在执行时,只需登记imageView
+            load.addTarget(imageView);
+        }
+        cancelStaleLoad(imageView,load);
+        return created ? load : null;
+    }
+
+    /**
+     * 打开超大图片的分块解码(如可缩放的地图、商品大图),图片不在磁盘缓存中时先下载
+     * 在后台打开,结果在主线程回调;不再使用时需调用TiledImage.recycle
+     * @param uri
+     * @param listener
+     */
+    public void openTiledImage(String uri, TiledImage.OpenListener listener) {
+        DISK_EXECUTOR.execute(new OpenTiledTask(uri,listener,false));
+    }
+
+    /**
+     * 从磁盘缓存条目的文件描述符创建分块解码
+     * 解码器数量比磁盘线程数少一个,分块解码占满时普通图片的加载仍有线程可用
+     * @param uri
+     * @return 不在磁盘缓存中时返回null
+     * @throws IOException
+     */
+    private TiledImage openTiledImageFromDiskCache(String uri) throws IOException {
+        if(mDiskLruCache == null){
+            return null;
+        }
+        DiskEntry entry = getDiskEntry(uri,hashKeyFormUrl(uri));
+        if(entry == null){
+            return null;
+        }
+        try {
+            return TiledImage.open(this,entry.dataKey,entry.snapshot,DISK_CACHE_INDEX,
+                    Math.max(1,DISK_THREAD_COUNT - 1));
+        } catch (IOException e) {
+            entry.snapshot.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 在磁盘线程池中执行,供分块解码使用
+     * @param task
+     */
+    void executeDiskTask(PriorityTask task) {
+        DISK_EXECUTOR.execute(task);
+    }
+
+    /**
+     * 预加载图片,只写入磁盘缓存,不解码
+     * @param uris
+     * @param reqWidth
+     * @param reqHeight
+     */
+    public void prefetch(List<String> uris, int reqWidth, int reqHeight) {
+        prefetch(uris,reqWidth,reqHeight,false);
+    }
+
+    /**
+     * 以低优先级预加载图片,不会与可见imageView的请求竞争
+     * @param uris 按希望的执行顺序排列,第一个先执行
+     * @param reqWidth 之后绑定时的请求尺寸
+     * @param reqHeight
+     * @param decode 是否同时解码放入内存缓存,否则只写入磁盘缓存
+     */
+    public void prefetch(List<String> uris, int reqWidth, int reqHeight, boolean decode) {
+        //uris按离可见区域由近到远排列,序号递减,近的先执行
+        long[] sequences = PriorityTask.descendingSequences(uris.size());
+        for (int i = 0; i < uris.size(); i++) {
+            String uri = uris.get(i);
+            if(TextUtils.isEmpty(uri)){
+                continue;
+            }
+            String key = hashKeyFormUrl(uri) + "_" + reqWidth + "_" + reqHeight + "_" + mDecodeOptions.getKey();
+            InFlightLoad load;
+            synchronized (mInFlightLoads) {
+                if(mInFlightLoads.containsKey(key)){
+                    continue;
+                }
+                load = new InFlightLoad(key,uri,reqWidth,reqHeight,mDecodeOptions,
+                        PriorityTask.PRIORITY_LOW,decode,sequences[i]);
+                mInFlightLoads.put(key,load);
+            }
+            DISK_EXECUTOR.execute(new DiskTask(load,false));
+        }
+    }
+
+    /**
+     * 暂停预加载,已在执行的任务不受影响,之后开始的任务推迟到resumePrefetch
+     */
+    public void pausePrefetch() {
+        mPrefetchPaused = true;
+    }
+
+    /**
+     * 恢复预加载,重新提交暂停期间推迟的任务
+     */
+    public void resumePrefetch() {
+        List<PriorityTask> tasks;
+        synchronized (mPausedPrefetchTasks) {
+            mPrefetchPaused = false;
+            tasks = new ArrayList<PriorityTask>(mPausedPrefetchTasks);
+            mPausedPrefetchTasks.clear();
+        }
+        for (PriorityTask task : tasks) {
+            if(task instanceof NetworkTask){
+                NETWORK_EXECUTOR.execute(task);
+            } else {
+                DISK_EXECUTOR.execute(task);
+            }
+        }
+    }
+
+    /**
+     * 取消所有尚未完成的预加载
+     */
+    public void cancelPrefetch() {
+        synchronized (mInFlightLoads) {
+            List<InFlightLoad> loads = new ArrayList<InFlightLoad>(mInFlightLoads.values());
+            for (InFlightLoad load : loads) {
+                if(load.priority < PriorityTask.PRIORITY_NORMAL){
+                    load.cancelled = true;
+                    mInFlightLoads.remove(load.key);
+                }
+            }
+        }
+        //推迟的任务恢复后会发现已取消而直接结束
+        resumePrefetch();
+    }
+
+    /**
+     * 预加载暂停时推迟低优先级任务
+     * @param task
+     * @param load
+     * @return 是否已推迟
+     */
+    private boolean deferIfPrefetchPaused(PriorityTask task, InFlightLoad load) {
+        if(!mPrefetchPaused || load.priority >= PriorityTask.PRIORITY_NORMAL || load.cancelled){
+            return false;
+        }
+        synchronized (mPausedPrefetchTasks) {
+            if(!mPrefetchPaused){
+                return false;
+            }
+            mPausedPrefetchTasks.add(task);
+            return true;
+        }
+    }
+
+    /**
+     * 图片是否已在编码数据缓存或磁盘缓存中
+     * @param key 磁盘缓存key
+     * @return
+     */
+    private boolean isInDiskCache(String key) throws IOException {
+        if(mEncodedMemoryCache.contains(getDataKey(key))){
+            return true;
+        }
+        if(mDiskLruCache == null){
+            return false;
+        }
+        DiskEntry entry = getDiskEntry(key);
+        if(entry == null){
+            return false;
+        }
+        entry.snapshot.close();
+        return true;
+    }
+
+    /**
+     * imageView重新绑定后,不再等待它之前的布局结果
+     * @param imageView
+     */
+    private void cancelPendingSize(ImageView imageView) {
+        PendingSize pending = mPendingSizes.remove(imageView);
+        if(pending != null){
+            pending.unregister(imageView);
+        }
+    }
+
+    /**
+     * 图片显示区域的宽度(去掉padding),无法确定时返回0
+     * @param imageView
+     * @return
+     */
+    private int getTargetWidth(ImageView imageView) {
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        DisplayMetrics displayMetrics = mContext.getResources().getDisplayMetrics();
+        return getTargetSize(imageView.getWidth(),imageView.getMeasuredWidth(),
+                params != null ? params.width : 0,
+                imageView.getPaddingLeft() + imageView.getPaddingRight(),displayMetrics.widthPixels);
+    }
+
+    /**
+     * 图片显示区域的高度(去掉padding),无法确定时返回0
+     * @param imageView
+     * @return
+     */
+    private int getTargetHeight(ImageView imageView) {
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        DisplayMetrics displayMetrics = mContext.getResources().getDisplayMetrics();
+        return getTargetSize(imageView.getHeight(),imageView.getMeasuredHeight(),
+                params != null ? params.height : 0,
+                imageView.getPaddingTop() + imageView.getPaddingBottom(),displayMetrics.heightPixels);
+    }
+
+    /**
+     * 依次取:布局后的大小、测量的大小、LayoutParams中的固定大小
+     * WRAP_CONTENT的大小由图片决定,以屏幕大小为上限;MATCH_PARENT等需要父布局决定的,在布局前返回0
+     * @param viewSize
+     * @param measuredSize
+     * @param paramSize
+     * @param padding
+     * @param screenSize
+     * @return
+     */
+    private static int getTargetSize(int viewSize, int measuredSize, int paramSize, int padding, int screenSize) {
+        int size;
+        if(viewSize > 0){
+            size = viewSize - padding;
+        } else if(measuredSize > 0){
+            size = measuredSize - padding;
+        } else if(paramSize > 0){
+            size = paramSize - padding;
+        } else if(paramSize == ViewGroup.LayoutParams.WRAP_CONTENT){
+            size = screenSize;
+        } else {
+            size = 0;
+        }
+        return Math.max(0,size);
+    }
+
+    /**
+     * imageView重新绑定后,从它之前等待的任务中移除
+     * 若该任务已没有任何imageView在等待,则取消,未开始的下载和解码都不再执行
+     * @param imageView
+     * @param current imageView当前等待的任务,可以为null
+     */
+    private void cancelStaleLoad(ImageView imageView, InFlightLoad current) {
+        InFlightLoad previous = current != null ? mViewLoads.put(imageView,current)
+                : mViewLoads.remove(imageView);
+        if(previous == null || previous == current){
+            return;
+        }
+        synchronized (mInFlightLoads) {
+            previous.targets.remove(imageView);
+            if(previous.targets.isEmpty() && mInFlightLoads.get(previous.key) == previous){
+                previous.cancelled = true;
+                mInFlightLoads.remove(previous.key);
+                Log.d(TAG,"cancel stale load,url:" + previous.uri);
+            }
+        }
+    }
+
+    /**
+     * 加载任务结束,移出请求表并把结果分发到主线程
+     * @param load
+     * @param bitmap 已持有引用的bitmap,可以为null
+     */
+    private void finishLoad(InFlightLoad load, Bitmap bitmap) {
+        List<ImageView> targets;
+        synchronized (mInFlightLoads) {
+            //移出请求表后不会再有新的imageView挂上来
+            if(mInFlightLoads.get(load.key) == load){
+                mInFlightLoads.remove(load.key);
+            }
+            targets = new ArrayList<ImageView>(load.targets);
+        }
+        if(bitmap == null){
+            return;
+        }
+        if(targets.isEmpty()){
+            releaseBitmap(bitmap);
+            return;
+        }
+        postResult(new LoaderResult(load,targets,load.uri,bitmap,false));
+    }
+
+    /**
+     * 把结果放入等待队列,队列由空变为非空时安排一次分发
+     * 同一帧内完成的结果合并在一起,在下一帧开始时一次性设置,避免每个结果单独触发一次重绘
+     * @param result
+     */
+    private void postResult(LoaderResult result) {
+        synchronized (mPendingResults) {
+            mPendingResults.add(result);
+            if(mResultDispatchScheduled){
+                return;
+            }
+            mResultDispatchScheduled = true;
+        }
+        mMainHandler.sendEmptyMessage(MSG_POST_RESULT);
+    }
+
+    /**
+     * imageView绑定的url是否仍对应这个结果
+     * 设置了KeyStrategy时,参数不同的url会共享同一加载任务,key相同也视为同一图片
+     * @param uri 加载任务的url
+     * @param tag imageView当前绑定的url
+     * @return
+     */
+    private boolean isSameImage(String uri, Object tag) {
+        if(uri.equals(tag)){
+            return true;
+        }
+        return tag instanceof String && hashKeyFormUrl(uri).equals(hashKeyFormUrl((String) tag));
+    }
+
+    /**
+     * 在主线程中分发等待队列中的全部结果
+     * 按到达顺序确定每个imageView最终显示的bitmap(后到的覆盖先到的,如预览图之后的完整图片),
+     * 每个imageView只检查一次url、只设置一次
+     */
+    private void dispatchResults() {
+        List<LoaderResult> results;
+        synchronized (mPendingResults) {
+            results = new ArrayList<LoaderResult>(mPendingResults);
+            mPendingResults.clear();
+            mResultDispatchScheduled = false;
+        }
+        Map<ImageView, Bitmap> bitmaps = new LinkedHashMap<ImageView, Bitmap>();
+        for (LoaderResult result : results) {
+            for (ImageView imageView : result.imageViews) {
+                if(result.preview){
+                    //预览图只显示在仍在等待这次加载的imageView上
+                    if(mViewLoads.get(imageView) != result.load){
+                        continue;
+                    }
+                } else if(mViewLoads.get(imageView) == result.load){
+                    mViewLoads.remove(imageView);
+                }
+
+                /**
+                 * 每个imageView绑定一个url作为唯一标示
+                 * 为了解决View复用所导致列表错位,在设置图片之前检查url有没有发生改变
+                 * 若发生变化则不设置
+                 */
+                if(isSameImage(result.uri,imageView.getTag(TAG_KEY_URI))){
+                    bitmaps.put(imageView,result.bitmap);
+                } else if(!result.preview){
+                    Log.i(TAG, "uri has changed");
+                }
+            }
+        }
+        for (Map.Entry<ImageView, Bitmap> entry : bitmaps.entrySet()) {
+            setImageBitmap(entry.getKey(),entry.getValue());
+        }
+        //释放加载任务持有的引用,已显示的bitmap由imageView持有
+        for (LoaderResult result : results) {
+            releaseBitmap(result.bitmap);
+        }
+    }
+
+
+    /**
+     * 使用线程池
+     *      参数1:核心线程数,默认情况下会在线程池一直存活,即使闲置
+     *      参数2:所能容纳的最大线程数(核心+非核心),达到这个值,之后的新任务就要排队
+     *      参数3:非核心线程闲置是的超时时间,超过则回收
+     *      参数4:参数3的单位
+     *      参数5:线程池中的任务队列
+     *      参数6:线程工厂
+     *
+     * 任务队列为无界的PriorityBlockingQueue,线程数永远不会超过核心线程数,所以核心数与最大数相同,
+     * 并允许核心线程闲置超时
+     * 内存/磁盘读取与解码在DISK_EXECUTOR中执行,网络下载在NETWORK_EXECUTOR中执行,
+     * 慢速的网络请求不会占满线程而使缓存命中的请求排队
+     */
+    private static final ThreadPoolExecutor DISK_EXECUTOR = new ThreadPoolExecutor(
+            DISK_THREAD_COUNT, DISK_THREAD_COUNT,
+            KEEP_ALIVE, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<Runnable>(), newThreadFactory("disk")
+    );
+
+    private static final ThreadPoolExecutor NETWORK_EXECUTOR = new ThreadPoolExecutor(
+            NETWORK_THREAD_COUNT, NETWORK_THREAD_COUNT,
+            KEEP_ALIVE, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<Runnable>(), newThreadFactory("network")
+    );
+
+    static {
+        DISK_EXECUTOR.allowCoreThreadTimeOut(true);
+        NETWORK_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+
+    /**
+     * 等待分发到主线程的结果(包括预览图),由mPendingResults自身加锁
+     */
+    private final List<LoaderResult> mPendingResults = new ArrayList<LoaderResult>();
+
+    /**
+     * 是否已安排分发,在mPendingResults的锁内访问
+     */
+    private boolean mResultDispatchScheduled;
+
+    /**
+     * 4.1及以上在下一帧开始时分发,首次使用时创建
+     */
+    private ResultFrameCallback mResultFrameCallback;
+
+    /**
+     * 在主线程中更新UI
+     * 4.1以下没有Choreographer,收到消息时直接分发,此时消息队列中已积累的结果同样会合并
+     */
+    private Handler mMainHandler = new Handler(Looper.getMainLooper()) {
+        @Override
+        public void handleMessage(Message msg) {
+            if(msg.what != MSG_POST_RESULT){
+                return;
+            }
+            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN){
+                if(mResultFrameCallback == null){
+                    mResultFrameCallback = new ResultFrameCallback();
+                }
+                Choreographer.getInstance().postFrameCallback(mResultFrameCallback);
+            } else {
+                dispatchResults();
+            }
+        }
+    };
+
+    /**
+     * 单独的类,4.1以下不会加载Choreographer.FrameCallback
+     */
+    private class ResultFrameCallback implements Choreographer.FrameCallback {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            dispatchResults();
+        }
+    }
+
+    /**
+     * 首先尝试从内存缓存中读取图片
+     * 其次尝试从编码数据缓存中解码
+     * 接着尝试从磁盘缓存中读取图片
+     * 最后才从网络中拉取图片
+     * 返回的bitmap由调用方持有一个引用,在引用释放前不会进入复用池;
+     * 用完(如不再显示)后必须调用releaseBitmap,之后不能再使用该bitmap
+     * @param uri
+     * @param reqWidth
+     * @param reqHeight
+     * @return
+     */
+    public Bitmap loadBitmap(String uri, int reqWidth,int reqHeight){
+        return loadBitmap(uri,reqWidth,reqHeight,mDecodeOptions);
+    }
+
+    /**
+     * 按指定的解码策略加载,返回的bitmap用完后同样需要调用releaseBitmap
+     * @param uri
+     * @param reqWidth
+     * @param reqHeight
+     * @param options
+     * @return
+     */
+    public Bitmap loadBitmap(String uri, int reqWidth,int reqHeight,DecodeOptions options){
+        Bitmap bitmap = loadBitmapFromMemCache(uri,reqWidth,reqHeight,options,true);
+        recordMemoryLookup(bitmap);
+        if(bitmap !=null){
+            Log.d(TAG,"loadBitmapFromMemCache,url:" + uri);
+            return bitmap;
+        }
+
+        bitmap = loadBitmapFromEncodedCache(uri,reqWidth,reqHeight,options);
+        if(bitmap !=null){
+            Log.d(TAG,"loadBitmapFromEncodedCache,url:" + uri);
+            return bitmap;
+        }
+
+        awaitDiskCacheReady();
+        try {
+            bitmap = loadBitmapFromDiskCache(uri,reqWidth,reqHeight,options);
+            if(bitmap !=null){
+                Log.d(TAG,"loadBitmapFromDiskCache,url:" + uri);
+                return bitmap;
+            }
+            bitmap = loadBitmapFromHttp(uri,reqWidth,reqHeight,options);
+            Log.d(TAG,"loadBitmapFromHttp,url:" + uri);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        if(bitmap == null && !mIsDiskLruCacheCreated){//若没有使用DiskLruCache则从网络下载
+            Log.w(TAG,"DiskLruCache is not created");
+            bitmap = downloadBitmapFromUrl(uri);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * DiskLruCache的缓存写操作是通过Editor完成
+     * @param uri
+     * @param reqWidth
+     * @param reqHeight
+     * @param options
+     * @return
+     * @throws IOException
+     */
+    private Bitmap loadBitmapFromHttp(String uri, int reqWidth, int reqHeight, DecodeOptions options)
+            throws IOException {
+        ByteBuffer downloaded = downloadToDiskCache(uri);
+        if(downloaded != null){
+            return decodeBitmapFromByteBuffer(hashKeyFormUrl(uri),downloaded,reqWidth,reqHeight,options);
+        }
+        return loadBitmapFromDiskCache(uri,reqWidth,reqHeight,options);
+    }
+
+    /**
+     * 从网络下载图片并写入磁盘缓存,同步加载时使用
+     * 提交前通过内存映射读取刚写入的文件解析宽高,与图片数据一同保存,之后从磁盘读取时可跳过解析宽高
+     * @param uri
+     * @return 刚写入文件的内存映射,可直接用于解码;下载失败或其他线程正在写入时返回null
+     * @throws IOException
+     */
+    private ByteBuffer downloadToDiskCache(String uri) throws IOException {
+        if(Looper.myLooper() == Looper.getMainLooper()){
+            throw new RuntimeException("can not visit network from UI Thread");
+        }
+        if(mDiskLruCache == null){
+            return null;
+        }
+        String key = hashKeyFormUrl(uri);//根据url获取生成的key
+
+        //同一图片已有线程在下载时,等待其完成,之后由调用方读取磁盘缓存
+        if(!beginDownload(key,true)){
+            return null;
+        }
+        try {
+            //排队期间可能已被其他请求下载过
+            if(isInDiskCache(key)){
+                return null;
+            }
+            return downloadToDiskCache(uri,key,null,null);
+        } finally {
+            endDownload(key);
+        }
+    }
+
+    /**
+     * 占用key的下载权
+     * @param key
+     * @param wait 已有线程在下载时是否等待其完成
+     * @return 是否占用成功,成功后需调用endDownload
+     */
+    private boolean beginDownload(String key, boolean wait) {
+        ActiveDownload activeDownload;
+        synchronized (mActiveDownloads) {
+            activeDownload = mActiveDownloads.get(key);
+            if(activeDownload == null){
+                mActiveDownloads.put(key,new ActiveDownload());
+                return true;
+            }
+        }
+        if(wait){
+            try {
+                activeDownload.done.await(DOWNLOAD_WAIT_TIMEOUT,TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 占用key的下载权,已有线程在下载时不等待,把后续任务挂到那个下载上
+     * @param key
+     * @param waiter 下载完成后交给磁盘线程池执行,读取磁盘缓存
+     * @return 是否占用成功,成功后需调用endDownload;失败时waiter已挂起,调用方直接返回
+     */
+    private boolean beginDownload(String key, PriorityTask waiter) {
+        synchronized (mActiveDownloads) {
+            ActiveDownload activeDownload = mActiveDownloads.get(key);
+            if(activeDownload == null){
+                mActiveDownloads.put(key,new ActiveDownload());
+                return true;
+            }
+            activeDownload.waiters.add(waiter);
+            return false;
+        }
+    }
+
+    private void endDownload(String key) {
+        ActiveDownload download;
+        synchronized (mActiveDownloads) {
+            download = mActiveDownloads.remove(key);
+        }
+        download.done.countDown();
+        //已从mActiveDownloads移除,不会再有新的waiter
+        for (PriorityTask waiter : download.waiters) {
+            DISK_EXECUTOR.execute(waiter);
+        }
+    }
+
+    /**
+     * 下载并写入磁盘缓存,调用方需保证同一key同时只有一个线程在下载
+     * @param uri
+     * @param key
+     * @param cached 已有条目的图片信息,不为null时发送条件请求
+     * @param load 对应的加载任务,可以为null
+     * @return 刚写入文件的内存映射;未修改(304)或下载失败时返回null
+     * @throws IOException
+     */
+    private ByteBuffer downloadToDiskCache(String uri, String key, DiskCacheMetadata cached,
+                                           InFlightLoad load) throws IOException {
+        long start = System.nanoTime();
+        FetchResponse response;
+        try {
+            response = mFetcher.fetch(uri,cached);
+        } catch (IOException e) {
+            mStats.recordMiss(LoaderStats.TIER_NETWORK);
+            throw e;
+        }
+        try {
+            if(cached != null && response.isNotModified()){
+                //服务器上的图片没有变化,只更新图片信息中的验证信息和过期时间
+                mStats.recordNotModified();
+                cached.updateFrom(response);
+                updateDiskCacheMetadata(key,cached);
+                return null;
+            }
+            if(!response.isSuccessful()){
+                mStats.recordMiss(LoaderStats.TIER_NETWORK);
+                Log.w(TAG,"download failed,code:" + response.getCode() + ",url:" + uri);
+                return null;
+            }
+            ByteBuffer buffer = writeToDiskCache(uri,key,response,load);
+            if(cached != null){
+                //图片已经变化,内存中按key本身缓存的旧bitmap不再使用;成为别名时新的数据按数据条目的key缓存
+                removeBitmapsFromMemoryCache(key);
+            }
+            mStats.downloadLatency().recordNanos(System.nanoTime() - start);
+            return buffer;
+        } finally {
+            response.close();
+        }
+    }
 
     /**
-     * 磁盘缓存索引
+     * 只改写已有条目的图片信息,图片数据保持不变
+     * @param key
+     * @param metadata
+     * @throws IOException
      */
-    private static final int DISK_CACHE_INDEX = 0;
+    private void updateDiskCacheMetadata(String key, DiskCacheMetadata metadata) throws IOException {
+        DiskLruCache.Editor editor = mDiskLruCache.edit(key);
+        if(editor == null){
+            return;
+        }
+        try {
+            //已存在的条目提交时,未写入的value保留原文件
+            editor.set(DISK_CACHE_METADATA_INDEX,metadata.toString());
+            editor.commit();
+            mDiskCacheFlusher.onCommit();
+        } finally {
+            editor.abortUnlessCommitted();
+        }
+    }
 
     /**
-     * 是否使用了DiskLruCache
+     * 将响应数据写入磁盘缓存
+     * @param uri
+     * @param key
+     * @param response
+     * @param load 对应的加载任务,可以为null
+     * @return 刚写入文件的内存映射,可直接用于解码
+     * @throws IOException
      */
-    private boolean mIsDiskLruCacheCreated = false;
+    private ByteBuffer writeToDiskCache(String uri, String key, FetchResponse response,
+                                        InFlightLoad load) throws IOException {
+        /**根据key获取Editor对象,如果这个缓存正在被编辑,edit()返回null*/
+        DiskLruCache.Editor editor = mDiskLruCache.edit(key);
+        if(editor == null){
+            return null;
+        }
+        try {
+            //根据open的第三个参数获取文件输出流,写入的同时计算数据的MD5
+            OutputStream outputStream = editor.newOutputStream(DISK_CACHE_INDEX);
+            MessageDigest digest = UrlKeyGenerator.newDigest();
+            if(digest != null){
+                outputStream = new DigestOutputStream(outputStream,digest);
+            }
+            IoUtils.ProgressListener listener = null;
+            if(mProgressiveDecode && load != null && load.decode && (response.getContentLength() < 0
+                    || response.getContentLength() > PROGRESSIVE_MIN_BYTES)){
+                listener = new ProgressiveDecode(load,key,response.getContentLength());
+            }
+            if(!copyToStream(uri,response.getBody(),outputStream,listener)){//通过文件输出流写入文件系统
+                return null;
+            }
+
+            //其他url已经保存了相同的数据时,只记录为它的别名
+            String contentHash = digest != null ? UrlKeyGenerator.toHexString(digest.digest()) : null;
+            if(contentHash != null && linkByContentHash(editor,key,contentHash,response)){
+                return null;
+            }
+
+            ByteBuffer buffer = mapDirtyFile(key);
+            DiskCacheMetadata metadata = new DiskCacheMetadata();
+            metadata.updateFrom(response);
+            metadata.contentHash = contentHash;
+            if(buffer != null){
+                BitmapFactory.Options options = mImageResizer.decodeBoundsFromByteBuffer(buffer);
+                metadata.width = options.outWidth;
+                metadata.height = options.outHeight;
+                metadata.mimeType = options.outMimeType;
+                if(metadata.hasSize()){
+                    mImageSizeCache.put(key,getImageSize(metadata));
+                }
+            }
+            editor.set(DISK_CACHE_METADATA_INDEX,metadata.toString());
+            editor.commit();//提交
+            mDiskCacheFlusher.onCommit();//日志由后台批量刷新
+            onDiskEntryWritten(key);
+            if(buffer != null){
+                mEncodedMemoryCache.put(key,buffer);
+            } else {
+                //映射失败时不能留下key之前的编码数据和宽高,否则重新验证后仍会解码旧图片
+                mEncodedMemoryCache.remove(key);
+                mImageSizeCache.remove(key);
+            }
+            //之后相同的数据都指向这个条目
+            if(contentHash != null){
+                putIndexedKey(getIndexKey(INDEX_CONTENT,contentHash),key);
+            }
+            return buffer;
+        } finally {
+            editor.abortUnlessCommitted();//未提交则中断
+        }
+    }
 
     /**
-     * 上下文
+     * 下载的数据与已保存的某个条目相同时,把正在编辑的条目写成它的别名
+     * @param editor key的Editor,数据已写入
+     * @param key
+     * @param contentHash 下载数据的MD5
+     * @param response
+     * @return 是否已写成别名
+     * @throws IOException
      */
-    private Context mContext;
+    private boolean linkByContentHash(DiskLruCache.Editor editor, String key, String contentHash,
+                                      FetchResponse response) throws IOException {
+        String dataKey = getIndexedKey(getIndexKey(INDEX_CONTENT,contentHash));
+        if(dataKey == null || dataKey.equals(key)){
+            return false;
+        }
+        DiskEntry data = getDataEntry(dataKey);
+        if(data == null){
+            return false;
+        }
+        try {
+            if(!contentHash.equals(data.metadata.contentHash)){
+                return false;
+            }
+            writeAlias(editor,key,data,response);
+            mStats.recordDeduplicated();
+            return true;
+        } finally {
+            data.snapshot.close();
+        }
+    }
 
     /**
-     * 图片压缩功能类
+     * 把key写成数据条目的别名:图片数据为空,图片信息中记录数据所在条目的key和数据的MD5
+     * @param editor key的Editor,已写入的数据会被清空
+     * @param key
+     * @param data 保存数据的条目
+     * @param response 本次的响应,记录其中的验证信息
+     * @throws IOException
      */
-    private ImageResizer mImageResizer = new ImageResizer();
+    private void writeAlias(DiskLruCache.Editor editor, String key, DiskEntry data,
+                            FetchResponse response) throws IOException {
+        //新条目的每个value都必须写入,这里写入空文件
+        editor.newOutputStream(DISK_CACHE_INDEX).close();
+        DiskCacheMetadata metadata = new DiskCacheMetadata();
+        metadata.updateFrom(response);
+        metadata.copyContentFrom(data.metadata);
+        metadata.dataKey = data.dataKey;
+        editor.set(DISK_CACHE_METADATA_INDEX,metadata.toString());
+        editor.commit();
+        mDiskCacheFlusher.onCommit();
+
+        //key之前保存的数据已被清空
+        onDiskEntryWritten(key);
+        mEncodedMemoryCache.remove(key);
+        mImageSizeCache.remove(key);
+        mDataKeys.put(key,data.dataKey);
+        Log.d(TAG,"deduplicated,key:" + key + ",dataKey:" + data.dataKey);
+    }
 
     /**
-     * 内存缓存
+     * 读取磁盘缓存条目,别名条目读取保存数据的条目
+     * 读取别名时数据条目在LRU中的位置也一并更新,被多个url使用的数据会一直保留;
+     * 数据条目已被淘汰或数据已变化(MD5不同)时,别名失效并被删除
+     * @param key 磁盘缓存key
+     * @return 不存在时返回null,返回的snapshot由调用方关闭
+     * @throws IOException
      */
-    private LruCache<String, Bitmap> mMemoryCache;
+    private DiskEntry getDiskEntry(String key) throws IOException {
+        DiskLruCache.Snapshot snapshot = mDiskLruCache.get(key);
+        if(snapshot == null && migrateLegacyDiskCacheEntry(key,key)){
+            snapshot = mDiskLruCache.get(key);
+        }
+        if(snapshot == null){
+            return null;
+        }
+        DiskCacheMetadata metadata;
+        try {
+            metadata = DiskCacheMetadata.parse(snapshot.getString(DISK_CACHE_METADATA_INDEX));
+        } catch (IOException e) {
+            snapshot.close();
+            throw e;
+        }
+        if(!metadata.isAlias()){
+            return new DiskEntry(key,snapshot,metadata);
+        }
+        snapshot.close();
+
+        DiskEntry data = getDataEntry(metadata.dataKey);
+        if(data != null){
+            if(metadata.contentHash != null && metadata.contentHash.equals(data.metadata.contentHash)){
+                mDataKeys.put(key,data.dataKey);
+                //验证信息和过期时间以别名条目为准
+                return new DiskEntry(data.dataKey,data.snapshot,metadata);
+            }
+            data.snapshot.close();
+        }
+        Log.d(TAG,"remove stale alias,key:" + key);
+        mDataKeys.remove(key);
+        //正在下载的条目不删除,下载完成后会被覆盖
+        if(beginDownload(key,false)){
+            try {
+                mDiskLruCache.remove(key);
+            } finally {
+                endDownload(key);
+            }
+        }
+        return null;
+    }
 
     /**
-     * 磁盘缓存
+     * 按url读取磁盘缓存条目,除了getDiskEntry,还会查找旧版本key生成有误时(见UrlKeyGenerator.legacyHashKeyForUrl)保存的条目
+     * @param url
+     * @param key url的磁盘缓存key
+     * @return 不存在时返回null,返回的snapshot由调用方关闭
+     * @throws IOException
      */
-    private DiskLruCache mDiskLruCache;
+    private DiskEntry getDiskEntry(String url, String key) throws IOException {
+        DiskEntry entry = getDiskEntry(key);
+        if(entry == null && mLegacyDiskCache != null
+                && migrateLegacyDiskCacheEntry(UrlKeyGenerator.legacyHashKeyForUrl(url),key)){
+            entry = getDiskEntry(key);
+        }
+        return entry;
+    }
 
     /**
-     * 线程工厂
+     * 将旧缓存中的条目拷贝到新缓存的key下并从旧缓存中删除
+     * 版本1的条目没有图片信息,原始宽高在第一次解码时得到;图片数据的MD5在拷贝时计算,之后可以参与去重
+     * @param legacyKey 旧缓存中的key
+     * @param key 新缓存中的key
+     * @return 是否已迁移
+     * @throws IOException
      */
-    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
-        private final AtomicInteger mCount = new AtomicInteger(1);
-
-        @Override
-        public Thread newThread(Runnable r) {
-            return new Thread(r, "ImageLoader#" + mCount.getAndIncrement());
+    private boolean migrateLegacyDiskCacheEntry(String legacyKey, String key) throws IOException {
+        DiskLruCache legacyCache = mLegacyDiskCache;
+        //旧key大多超过了DiskLruCache允许的64个字符,这样的条目不可能存在
+        if(legacyCache == null || legacyKey.length() > LEGACY_KEY_MAX_LENGTH){
+            return false;
         }
-    };
-
-    public ImageLoader(Context context) {
-        mContext = context.getApplicationContext();
-
-        /**LruCache的典型初始化  总容量为当前进程可用内存的1/8 单位KB*/
-        int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
-        int cacheSize = maxMemory / 8;
-        mMemoryCache = new LruCache<String, Bitmap>(cacheSize) {
-            @Override
-            protected int sizeOf(String key, Bitmap bitmap) {
-                //计算缓存对象(bitmap)的大小,单位需要同总容量一致
-                return bitmap.getRowBytes() * bitmap.getHeight() / 1024;
-            }
-        };
-
-
-        File diskCacheDir = getDiskCacheDir(mContext, "bitmap");
-        if(!diskCacheDir.exists()){
-            diskCacheDir.mkdirs();
+        DiskLruCache.Snapshot legacy = legacyCache.get(legacyKey);
+        if(legacy == null){
+            return false;
         }
-
-        /**若缓存的文件容量大于最小缓存量50M时,通过open方法用于创建自身*/
-        if(getUsableSpace(diskCacheDir) > DISK_CACHE_SIZE){
+        String contentHash;
+        try {
+            //正在下载时edit()返回null,旧条目留到下次
+            DiskLruCache.Editor editor = mDiskLruCache.edit(key);
+            if(editor == null){
+                return false;
+            }
             try {
-                /**
-                 * 参数1:数据的缓存地址
-                 * 参数2:一般为1,当版本号变化时会清空所有缓存文件
-                 * 参数3:单个节点所应用的数据个数 一般也是1
-                 * 参数4:缓存总量 超容量时策略为LRU
-                 */
-                mDiskLruCache = DiskLruCache.open(diskCacheDir,1,1,DISK_CACHE_SIZE);
-                mIsDiskLruCacheCreated = true;//使用了DiskLruCache的标示
-            } catch (IOException e) {
-                e.printStackTrace();
+                DiskCacheMetadata metadata = mLegacyValueCount > DISK_CACHE_METADATA_INDEX
+                        ? DiskCacheMetadata.parse(legacy.getString(DISK_CACHE_METADATA_INDEX))
+                        : new DiskCacheMetadata();
+                OutputStream outputStream = editor.newOutputStream(DISK_CACHE_INDEX);
+                MessageDigest digest = UrlKeyGenerator.newDigest();
+                if(digest != null){
+                    outputStream = new DigestOutputStream(outputStream,digest);
+                }
+                try {
+                    IoUtils.copy(legacy.getInputStream(DISK_CACHE_INDEX),outputStream,sByteArrayPool);
+                } finally {
+                    outputStream.close();
+                }
+                contentHash = digest != null ? UrlKeyGenerator.toHexString(digest.digest()) : null;
+                metadata.contentHash = contentHash;
+                metadata.dataKey = null;
+                editor.set(DISK_CACHE_METADATA_INDEX,metadata.toString());
+                editor.commit();
+                mDiskCacheFlusher.onCommit();
+            } finally {
+                editor.abortUnlessCommitted();
             }
+        } finally {
+            legacy.close();
         }
+        onDiskEntryWritten(key);
+        if(contentHash != null){
+            putIndexedKey(getIndexKey(INDEX_CONTENT,contentHash),key);
+        }
+        legacyCache.remove(legacyKey);
+        Log.d(TAG,"migrate legacy disk cache entry,key:" + key);
+        return true;
+    }
 
+    /**
+     * 读取保存图片数据的条目
+     * @param dataKey
+     * @return 不存在或本身是别名时返回null
+     * @throws IOException
+     */
+    private DiskEntry getDataEntry(String dataKey) throws IOException {
+        DiskLruCache.Snapshot snapshot = mDiskLruCache.get(dataKey);
+        if(snapshot == null){
+            return null;
+        }
+        try {
+            DiskCacheMetadata metadata = DiskCacheMetadata.parse(
+                    snapshot.getString(DISK_CACHE_METADATA_INDEX));
+            if(!metadata.isAlias()){
+                DiskEntry entry = new DiskEntry(dataKey,snapshot,metadata);
+                snapshot = null;
+                return entry;
+            }
+            return null;
+        } finally {
+            if(snapshot != null){
+                snapshot.close();
+            }
+        }
     }
 
     /**
-     * 构造器
-     * @param context
+     * 图片数据所在条目的key:已知的别名返回数据条目的key,其他返回key本身
+     * @param key 磁盘缓存key
      * @return
      */
-    public static ImageLoader build(Context context){
-        return new ImageLoader(context);
+    private String getDataKey(String key) {
+        String dataKey = mDataKeys.get(key);
+        return dataKey != null ? dataKey : key;
     }
 
     /**
-     * 将bitmap添加到内存缓存
+     * key的条目被重新写入,之前记录的与它有关的别名关系都不再可靠
      * @param key
-     * @param bitmap
      */
-    private void addBitmapToMemoryCache(String key,Bitmap bitmap){
-        if(getBitmapFromMemCache(key) == null && !bitmap.isRecycled()){
-            mMemoryCache.put(key,bitmap);
+    private void onDiskEntryWritten(String key) {
+        mDataKeys.remove(key);
+        for (Map.Entry<String, String> entry : mDataKeys.snapshot().entrySet()) {
+            if(key.equals(entry.getValue())){
+                mDataKeys.remove(entry.getKey());
+            }
         }
     }
 
     /**
-     * 获取内存缓存中的bitmap
-     * @param key
+     * 内容索引条目的key,与url的key一样经过MD5转换,按前缀区分种类
+     * @param type INDEX_CONTENT
+     * @param value
      * @return
      */
-    private Bitmap getBitmapFromMemCache(String key) {
-        if(!TextUtils.isEmpty(key)) {
-            return mMemoryCache.get(key);
-        } else {
-            return null;
-        }
-    }
-
-
-    public void bindBitmap(final String uri,final ImageView imageView){
-        bindBitmap(uri,imageView,0,0);
+    private static String getIndexKey(String type, String value) {
+        return UrlKeyGenerator.hashKeyForUrl(type + value);
     }
 
     /**
-     * 先从LruCache中获取bitmap,有则直接使用
-     * 否则在线程池中调用loadBitmap去加载图片
-     * @param uri
-     * @param imageView
-     * @param reqWidth
-     * @param reqHeight
+     * 查找内容索引,索引条目的第一个value为数据条目的key
+     * @param indexKey
+     * @return 没有时返回null
+     * @throws IOException
      */
-    public void bindBitmap(final String uri,final ImageView imageView,
-                           final int reqWidth,final int reqHeight){
-        imageView.setTag(TAG_KEY_URI,uri);//每个imageView绑定一个url作为唯一标示
-        Bitmap bitmap = loadBitmapFromMemCache(uri);
-        if(bitmap!=null){
-            imageView.setImageBitmap(bitmap);
-            return;
+    private String getIndexedKey(String indexKey) throws IOException {
+        DiskLruCache.Snapshot snapshot = mDiskLruCache.get(indexKey);
+        if(snapshot == null){
+            return null;
+        }
+        try {
+            String dataKey = snapshot.getString(DISK_CACHE_INDEX);
+            return TextUtils.isEmpty(dataKey) ? null : dataKey;
+        } finally {
+            snapshot.close();
         }
-
-        Runnable loadBitmapTask = new Runnable() {
-            @Override
-            public void run() {
-                Bitmap bitmap = loadBitmap(uri,reqWidth,reqHeight);
-                if(bitmap!=null){
-                    LoaderResult result = new LoaderResult(imageView,uri,bitmap);
-                    mMainHandler.obtainMessage(MSG_POST_RESULT,result).sendToTarget();
-                }
-            }
-        };
-
-        THREAD_POOL_EXECUTOR.execute(loadBitmapTask);
-
     }
 
-
     /**
-     * 使用线程池
-     *      参数1:核心线程数,默认情况下会在线程池一直存活,即使闲置
-     *      参数2:所能容纳的最大线程数(核心+非核心),达到这个值,之后的新任务就要排队
-     *      参数3:非核心线程闲置是的超时时间,超过则回收
-     *      参数4:参数3的单位
-     *      参数5:线程池中的任务队列
-     *      参数6:线程工厂
+     * 写入内容索引,失败时只是少一次去重的机会,不影响本次加载
+     * @param indexKey
+     * @param dataKey
      */
-    public static final Executor THREAD_POOL_EXECUTOR = new ThreadPoolExecutor(
-            CORE_POOL_SIZE, MAXIMUM_POOL_SIZE,
-            KEEP_ALIVE, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<Runnable>(), sThreadFactory
-    );
-
+    private void putIndexedKey(String indexKey, String dataKey) {
+        try {
+            DiskLruCache.Editor editor = mDiskLruCache.edit(indexKey);
+            if(editor == null){
+                return;
+            }
+            try {
+                editor.set(DISK_CACHE_INDEX,dataKey);
+                editor.set(DISK_CACHE_METADATA_INDEX,"");
+                editor.commit();
+                mDiskCacheFlusher.onCommit();
+            } finally {
+                editor.abortUnlessCommitted();
+            }
+        } catch (IOException e) {
+            Log.w(TAG,"putIndexedKey failed:" + e);
+        }
+    }
 
     /**
-     * 在主线程中更新UI
+     * 将正在编辑的缓存文件映射到内存
+     * 映射与文件本身绑定,提交后文件被重命名,映射依然有效,且页面仍在系统缓存中,解码时不会再次读取磁盘
+     * @param key
+     * @return 文件不存在时返回null
      */
-    private Handler mMainHandler = new Handler(Looper.getMainLooper()) {
-        @Override
-        public void handleMessage(Message msg) {
-            LoaderResult result = (LoaderResult) msg.obj;
-            ImageView imageView = result.imageView;
-            imageView.setImageBitmap(result.bitmap);
-            String uri = (String) imageView.getTag(TAG_KEY_URI);
-
-            /**
-             * 每个imageView绑定一个url作为唯一标示
-             * 为了解决View复用所导致列表错位,在设置图片之前坚持url有没有发生改变
-             * 若发生变化则不设置
-             */
-            if (uri.equals(result.uri)) {
-                imageView.setImageBitmap(result.bitmap);
-            } else {
-                Log.i(TAG, "uri has changed");
+    private ByteBuffer mapDirtyFile(String key) {
+        //DiskLruCache编辑中的文件名为 key.index.tmp
+        File dirtyFile = new File(mDiskLruCache.getDirectory(key),key + "." + DISK_CACHE_INDEX + ".tmp");
+        if(!dirtyFile.exists()){
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(dirtyFile);
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+        } catch (IOException e) {
+            Log.w(TAG,"mapDirtyFile.failed" + e);
+            return null;
+        } finally {
+            if(in != null){
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
-    };
+    }
 
     /**
-     * 首先尝试从内存缓存中读取图片
-     * 接着尝试从磁盘缓存中读取图片
-     * 最后才从网络中拉取图片
-     * @param uri
+     * 从编码数据缓存中取出原始字节并解码
+     * @param url
      * @param reqWidth
      * @param reqHeight
+     * @param options
      * @return
      */
-    public Bitmap loadBitmap(String uri, int reqWidth,int reqHeight){
-        Bitmap bitmap = loadBitmapFromMemCache(uri);
-        if(bitmap !=null){
-            Log.d(TAG,"loadBitmapFromMemCache,url:" + uri);
-            return bitmap;
+    private Bitmap loadBitmapFromEncodedCache(String url, int reqWidth, int reqHeight, DecodeOptions options) {
+        String key = getDataKey(hashKeyFormUrl(url));
+        ByteBuffer buffer = mEncodedMemoryCache.get(key,sByteArrayPool);
+        if(buffer == null){
+            mStats.recordMiss(LoaderStats.TIER_ENCODED);
+            return null;
         }
-
+        mStats.recordHit(LoaderStats.TIER_ENCODED);
+        mStats.recordBytes(LoaderStats.TIER_ENCODED,buffer.remaining());
         try {
-            bitmap = loadBitmapFromDiskCache(uri,reqWidth,reqHeight);
-            if(bitmap !=null){
-                Log.d(TAG,"loadBitmapFromDiskCache,url:" + uri);
-                return bitmap;
-            }
-            bitmap = loadBitmapFromHttp(uri,reqWidth,reqHeight);
-            Log.d(TAG,"loadBitmapFromHttp,url:" + uri);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        if(bitmap == null && !mIsDiskLruCacheCreated){//若没有使用DiskLruCache则从网络下载
-            Log.w(TAG,"DiskLruCache is not created");
-            bitmap = downloadBitmapFromUrl(uri);
+            return decodeBitmapFromByteBuffer(key,buffer,reqWidth,reqHeight,options);
+        } finally {
+            sByteArrayPool.returnBuf(buffer.array());
         }
-
-        return bitmap;
     }
 
     /**
-     * DiskLruCache的缓存写操作是通过Editor完成
-     * @param uri
+     * 解码内存中的图片数据,数据来自刚写入磁盘缓存文件的内存映射或编码数据缓存
+     * @param key
+     * @param buffer
      * @param reqWidth
      * @param reqHeight
+     * @param options
      * @return
-     * @throws IOException
      */
-    private Bitmap loadBitmapFromHttp(String uri, int reqWidth, int reqHeight) throws IOException {
-        if(Looper.myLooper() == Looper.getMainLooper()){
-            throw new RuntimeException("can not visit network from UI Thread");
+    private Bitmap decodeBitmapFromByteBuffer(String key, ByteBuffer buffer, int reqWidth, int reqHeight,
+                                              DecodeOptions options) {
+        int[] size = mImageSizeCache.get(key);
+        if(size == null){
+            size = getImageSize(mImageResizer.decodeBoundsFromByteBuffer(buffer));
+            mImageSizeCache.put(key,size);
         }
-        if(mDiskLruCache == null){
-            return null;
-        }
-        String key = hashKeyFormUrl(uri);//根据url获取生成的key
-
-        /**根据key获取Editor对象,如果这个缓存正在被编辑,edit()返回null*/
-        DiskLruCache.Editor editor = mDiskLruCache.edit(key);
-        if(editor!=null){
-            //根据open的第三个参数获取文件输出流
-            OutputStream outputStream = editor.newOutputStream(DISK_CACHE_INDEX);
-            if(downloadUrlToStream(uri,outputStream)){//当从网络下载图片时,通过文件输出流写入文件系统
-                editor.commit();//提交
-            }else {
-                editor.abort();//中断
+        DecodeSpec spec = resolveDecodeSpec(size,reqWidth,reqHeight,options);
+        String memoryKey = getMemoryCacheKey(key,spec);
+        Bitmap bitmap = getAndAcquireBitmapFromMemCache(memoryKey);
+        if(bitmap == null){
+            long start = System.nanoTime();
+            bitmap = mImageResizer.decodeSampledBitmapFromByteBuffer(buffer,spec);
+            mStats.decodeLatency().recordNanos(System.nanoTime() - start);
+            if(bitmap != null){
+                addAndAcquireBitmapToMemoryCache(memoryKey,bitmap);
             }
-            mDiskLruCache.flush();//刷新
         }
-        return loadBitmapFromDiskCache(uri,reqWidth,reqHeight);
+        return bitmap;
     }
 
     /**
      * 当从网络下载图片时,通过文件输出流写入文件系统
+     * 输入流由调用方关闭;连接不断开,读完后可以被复用
      * @param urlString
+     * @param in 响应数据
      * @param outputStream
+     * @param listener 进度回调,可以为null
      * @return
      */
-    private boolean downloadUrlToStream(String urlString, OutputStream outputStream) {
-        HttpURLConnection urlConnection = null;
-        BufferedOutputStream out = null;
-        BufferedInputStream in = null;
-
+    private boolean copyToStream(String urlString, InputStream in, OutputStream outputStream,
+                                 IoUtils.ProgressListener listener) {
         try {
-            final URL url = new URL(urlString);
-            urlConnection = (HttpURLConnection) url.openConnection();
-            in = new BufferedInputStream(urlConnection.getInputStream(),IO_BUFFER_SIZE);
-            out = new BufferedOutputStream(outputStream,IO_BUFFER_SIZE);
-
-            int b;
-            while ((b =in.read())!= -1){
-                out.write(b);
-            }
+            //使用复用池中的缓冲区整块读写,直接写入缓存文件的输出流
+            long start = System.nanoTime();
+            long bytes = IoUtils.copy(in,outputStream,sByteArrayPool,listener);
+            long elapsed = System.nanoTime() - start;
+            Log.d(TAG,"downloadUrlToStream " + bytes + " bytes in " + elapsed / 1000000 + "ms, "
+                    + IoUtils.bytesPerSecond(bytes,elapsed) + " B/s,url:" + urlString);
+            mStats.recordHit(LoaderStats.TIER_NETWORK);
+            mStats.recordBytes(LoaderStats.TIER_NETWORK,bytes);
             return true;
         } catch (IOException e) {
+            mStats.recordMiss(LoaderStats.TIER_NETWORK);
             Log.e(TAG,"downloadUrlToStream.failed" + e);
         }finally {
-            if(urlConnection!=null){
-                urlConnection.disconnect();
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 提交后台任务,向服务器重新验证已过期的磁盘缓存条目
+     * 本次加载仍使用旧数据,验证完成后的加载使用新数据
+     * @param uri
+     * @param key
+     */
+    private void scheduleRevalidation(final String uri, final String key) {
+        synchronized (mRevalidatingKeys) {
+            if(!mRevalidatingKeys.add(key)){
+                return;
             }
-            if(out!=null){
+        }
+        NETWORK_EXECUTOR.execute(new PriorityTask(PriorityTask.PRIORITY_LOW) {
+            @Override
+            public void run() {
                 try {
-                    out.flush();
-                    out.close();
+                    revalidateDiskCache(uri,key);
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    Log.w(TAG,"revalidate failed:" + e + ",url:" + uri);
+                } finally {
+                    synchronized (mRevalidatingKeys) {
+                        mRevalidatingKeys.remove(key);
+                    }
                 }
             }
-            if(in!=null){
-                try {
-                    in.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+        });
+    }
+
+    /**
+     * 发送条件请求,304时只更新过期时间,否则替换磁盘缓存条目
+     * @param uri
+     * @param key
+     * @throws IOException
+     */
+    private void revalidateDiskCache(String uri, String key) throws IOException {
+        //正在下载时不必再验证
+        if(!beginDownload(key,false)){
+            return;
+        }
+        try {
+            DiskLruCache.Snapshot snapshot = mDiskLruCache.get(key);
+            if(snapshot == null){
+                return;
+            }
+            DiskCacheMetadata metadata;
+            try {
+                metadata = DiskCacheMetadata.parse(snapshot.getString(DISK_CACHE_METADATA_INDEX));
+            } finally {
+                snapshot.close();
+            }
+            if(!metadata.isExpired(System.currentTimeMillis())){
+                return;
+            }
+            downloadToDiskCache(uri,key,metadata,null);
+        } finally {
+            endDownload(key);
+        }
+    }
+
+    /**
+     * 移除某个磁盘缓存key在内存缓存中所有解码参数的bitmap
+     * @param key
+     */
+    private void removeBitmapsFromMemoryCache(String key) {
+        String prefix = key + "_";
+        for (String memoryKey : mMemoryCache.snapshot().keySet()) {
+            if(memoryKey.startsWith(prefix)){
+                mMemoryCache.remove(memoryKey);
+            }
+        }
+        //图片已经变化,仍在显示的旧bitmap也不能再被新的请求使用
+        synchronized (mActiveResources) {
+            Iterator<String> iterator = mActiveResources.keySet().iterator();
+            while (iterator.hasNext()) {
+                if(iterator.next().startsWith(prefix)){
+                    iterator.remove();
                 }
             }
         }
-        return false;
     }
 
 
@@ -391,23 +2557,26 @@ public class ImageLoader {
      */
     private Bitmap downloadBitmapFromUrl(String urlString){
         Bitmap bitmap = null;
-        HttpURLConnection urlConnection = null;
-        BufferedInputStream in = null;
+        FetchResponse response = null;
 
         try {
-            final URL url = new URL(urlString);
-            urlConnection = (HttpURLConnection) url.openConnection();
-            in = new BufferedInputStream(urlConnection.getInputStream(),IO_BUFFER_SIZE);
-            bitmap = BitmapFactory.decodeStream(in);
+            response = mFetcher.fetch(urlString,null);
+            if(response.isSuccessful()){
+                long start = System.nanoTime();
+                bitmap = BitmapFactory.decodeStream(new BufferedInputStream(response.getBody(),IO_BUFFER_SIZE));
+                mStats.decodeLatency().recordNanos(System.nanoTime() - start);
+                mStats.recordHit(LoaderStats.TIER_NETWORK);
+            } else {
+                mStats.recordMiss(LoaderStats.TIER_NETWORK);
+                Log.w(TAG,"downloadBitmapFromUrl failed,code:" + response.getCode());
+            }
         } catch (IOException e) {
+            mStats.recordMiss(LoaderStats.TIER_NETWORK);
             Log.e(TAG,"downloadBitmapFromUrl.failed" + e);
         }finally {
-            if(urlConnection!=null){
-                urlConnection.disconnect();
-            }
-            if(in!=null){
+            if(response!=null){
                 try {
-                    in.close();
+                    response.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -422,10 +2591,12 @@ public class ImageLoader {
      * @param url
      * @param reqWidth
      * @param reqHeight
+     * @param options
      * @return
      * @throws IOException
      */
-    private Bitmap loadBitmapFromDiskCache(String url, int reqWidth, int reqHeight) throws IOException {
+    private Bitmap loadBitmapFromDiskCache(String url, int reqWidth, int reqHeight, DecodeOptions options)
+            throws IOException {
 
         //当前操作要在非UI线程中执行
         if(Looper.myLooper() == Looper.getMainLooper()){
@@ -437,34 +2608,176 @@ public class ImageLoader {
         }
 
         Bitmap bitmap = null;
-        String key = hashKeyFormUrl(url);//获取key
-        DiskLruCache.Snapshot snapshot = mDiskLruCache.get(key);//获取Snapshot即可拿到输入流
-        if(snapshot !=null){
-            FileInputStream fileInputStream = (FileInputStream) snapshot
-                    .getInputStream(DISK_CACHE_INDEX);
+        String urlKey = hashKeyFormUrl(url);//获取key
+        DiskEntry entry = getDiskEntry(url,urlKey);//获取Snapshot即可拿到输入流,别名条目得到数据条目的Snapshot
+        if(entry == null){
+            mStats.recordMiss(LoaderStats.TIER_DISK);
+        } else {
+            DiskLruCache.Snapshot snapshot = entry.snapshot;
+            //之后都按数据条目的key缓存,相同的图片只保存和解码一份
+            String key = entry.dataKey;
+            mStats.recordHit(LoaderStats.TIER_DISK);
+            mStats.recordBytes(LoaderStats.TIER_DISK,snapshot.getLength(DISK_CACHE_INDEX));
+            try {
+                DiskCacheMetadata metadata = entry.metadata;
+                if(metadata.isExpired(System.currentTimeMillis())){
+                    scheduleRevalidation(url,urlKey);
+                }
+
+                //原始宽高优先取内存中记录的,其次取与图片一同保存的图片信息,都没有时才解析
+                int[] size = mImageSizeCache.get(key);
+                if(size == null && metadata.hasSize()){
+                    size = getImageSize(metadata);
+                    mImageSizeCache.put(key,size);
+                }
 
-            //避免OOM,这里通过文件流得到它对应的文件描述符
-            FileDescriptor fileDescriptor = fileInputStream.getFD();
-            //根据文件描述符,获取一张缩放后的bitmap
-            bitmap = mImageResizer.decodeSampledBitmapFromFileDescripter(fileDescriptor,reqWidth,reqHeight);
-            if(bitmap!=null){
-                //将该bitmap添加到内存缓存中
-                addBitmapToMemoryCache(key,bitmap);
+                FileInputStream fileInputStream = (FileInputStream) snapshot
+                        .getInputStream(DISK_CACHE_INDEX);
+
+                //不太大的图片整个读入内存,放入编码数据缓存后从内存解码,同样只读取一遍文件
+                long length = snapshot.getLength(DISK_CACHE_INDEX);
+                if(length > 0 && length <= mEncodedMemoryCache.maxEntrySize()){
+                    byte[] data = readFully(fileInputStream,(int) length);
+                    if(data != null){
+                        try {
+                            ByteBuffer buffer = ByteBuffer.wrap(data,0,(int) length);
+                            mEncodedMemoryCache.put(key,buffer);
+                            return decodeBitmapFromByteBuffer(key,buffer,reqWidth,reqHeight,options);
+                        } finally {
+                            sByteArrayPool.returnBuf(data);
+                        }
+                    }
+                }
+
+                //避免OOM,这里通过文件流得到它对应的文件描述符
+                FileDescriptor fileDescriptor = fileInputStream.getFD();
+                if(size == null){
+                    size = getImageSize(mImageResizer.decodeBoundsFromFileDescripter(fileDescriptor));
+                }
+                //记录下来供之后的内存缓存查找使用
+                mImageSizeCache.put(key,size);
+                DecodeSpec spec = resolveDecodeSpec(size,reqWidth,reqHeight,options);
+                String memoryKey = getMemoryCacheKey(key,spec);
+
+                //其他尺寸的请求可能刚好解码出了同一采样率的bitmap
+                bitmap = getAndAcquireBitmapFromMemCache(memoryKey);
+                if(bitmap == null){
+                    //根据文件描述符,获取一张缩放后的bitmap,只读取一遍文件
+                    long start = System.nanoTime();
+                    bitmap = mImageResizer.decodeSampledBitmapFromFileDescripter(fileDescriptor,spec);
+                    mStats.decodeLatency().recordNanos(System.nanoTime() - start);
+                    if(bitmap!=null){
+                        //将该bitmap添加到内存缓存中,每个(url,解码参数)对应一个条目
+                        addAndAcquireBitmapToMemoryCache(memoryKey,bitmap);
+                    }
+                }
+            } finally {
+                snapshot.close();
             }
         }
         return bitmap;
     }
 
     /**
-     * 根据url转义的key获取LruCache中的bitmap
+     * 读取length个字节到复用池中的数组,调用方用完后需归还
+     * @param in
+     * @param length
+     * @return 文件长度不足时返回null
+     * @throws IOException
+     */
+    private byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] data = sByteArrayPool.getBuf(length);
+        int offset = 0;
+        while (offset < length) {
+            int n = in.read(data,offset,length - offset);
+            if(n == -1){
+                sByteArrayPool.returnBuf(data);
+                return null;
+            }
+            offset += n;
+        }
+        return data;
+    }
+
+    /**
+     * 根据url和请求尺寸获取内存缓存中的bitmap
+     * 内存缓存中每个url按解码参数分别存储,先查找请求尺寸对应的条目
+     * 未命中时若允许缩放,则从更清晰(采样率更小)的条目缩放得到,避免重新读取磁盘
+     * 返回的bitmap由调用方持有引用,用完需调用releaseBitmap
      * @param url
+     * @param reqWidth
+     * @param reqHeight
+     * @param options
+     * @param allowDownscale 是否允许从更大的条目缩放
      * @return
      */
-    private Bitmap loadBitmapFromMemCache(String url) {
-        final String key = hashKeyFormUrl(url);
-        Bitmap bitmap = getBitmapFromMemCache(key);
-        return bitmap;
+    private Bitmap loadBitmapFromMemCache(String url, int reqWidth, int reqHeight, DecodeOptions options,
+                                          boolean allowDownscale) {
+        final String key = getDataKey(hashKeyFormUrl(url));
+        int[] size = mImageSizeCache.get(key);
+        if(size == null){
+            //还没有解码过,内存缓存中不可能存在
+            return null;
+        }
+        DecodeSpec spec = resolveDecodeSpec(size,reqWidth,reqHeight,options);
+        String memoryKey = getMemoryCacheKey(key,spec);
+        Bitmap bitmap = getAndAcquireBitmapFromMemCache(memoryKey);
+        if(bitmap != null || !allowDownscale){
+            return bitmap;
+        }
+
+        //精确缩放的结果比同一采样率未缩放的条目小,也可以从后者缩放得到
+        int firstSample = spec.isScaled() ? spec.inSampleSize : spec.inSampleSize / 2;
+        for (int sample = firstSample; sample >= 1; sample /= 2) {
+            DecodeSpec largerSpec = new DecodeSpec(size[0],size[1],sample,spec.config,0,0);
+            Bitmap larger = getAndAcquireBitmapFromMemCache(getMemoryCacheKey(key,largerSpec));
+            if(larger != null){
+                bitmap = Bitmap.createScaledBitmap(larger,spec.width,spec.height,true);
+                if(bitmap == larger){
+                    //尺寸相同时返回的是同一个对象,不能以两个key缓存同一个bitmap
+                    return bitmap;
+                }
+                releaseBitmap(larger);
+                addAndAcquireBitmapToMemoryCache(memoryKey,bitmap);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 内存缓存的key:磁盘缓存key + 解码参数(采样率、精确缩放的尺寸、Config)
+     * @param key
+     * @param spec
+     * @return
+     */
+    private String getMemoryCacheKey(String key, DecodeSpec spec) {
+        return key + "_" + spec.getKeySuffix();
+    }
+
+    /**
+     * 记录在mImageSizeCache中的图片信息:{原始宽,原始高,是否不透明(1/0)}
+     * @param options 解析宽高的结果
+     * @return
+     */
+    private static int[] getImageSize(BitmapFactory.Options options) {
+        return new int[]{options.outWidth,options.outHeight,ImageResizer.isOpaque(options.outMimeType) ? 1 : 0};
+    }
+
+    private static int[] getImageSize(DiskCacheMetadata metadata) {
+        return new int[]{metadata.width,metadata.height,ImageResizer.isOpaque(metadata.mimeType) ? 1 : 0};
+    }
 
+    /**
+     * 根据图片信息和请求尺寸确定解码参数
+     * @param size mImageSizeCache中的图片信息
+     * @param reqWidth
+     * @param reqHeight
+     * @param options
+     * @return
+     */
+    private static DecodeSpec resolveDecodeSpec(int[] size, int reqWidth, int reqHeight, DecodeOptions options) {
+        return options.resolve(size[0],size[1],size[2] == 1,reqWidth,reqHeight);
     }
 
     /**
@@ -473,27 +2786,7 @@ public class ImageLoader {
      * @return
      */
     private String hashKeyFormUrl(String url) {
-        String cacheKey;
-        try {
-            final MessageDigest mDigest = MessageDigest.getInstance("MD5");
-            mDigest.update(url.getBytes());
-            cacheKey = bytesToHexString(mDigest.digest());
-        } catch (NoSuchAlgorithmException e) {
-            cacheKey = String.valueOf(url.hashCode());
-        }
-        return cacheKey;
-    }
-
-    private String bytesToHexString(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for(int i = 0; i < bytes.length; i++){
-            String hex = Integer.toHexString(0xFF * bytes[i]);
-            if(hex.length() == 1){
-                sb.append('0');
-            }
-            sb.append(hex);
-        }
-        return sb.toString();
+        return mUrlKeyGenerator.getKey(url);
     }
 
     /**
@@ -516,6 +2809,132 @@ public class ImageLoader {
         return new File(cachePath + File.separator + uniqueName);
     }
 
+    /**
+     * 在directory下打开分片的磁盘缓存,容量根据可用空间计算
+     * @param directory
+     * @return 无法创建时返回null
+     */
+    private ShardedDiskCache openDiskCache(File directory) {
+        if(!directory.exists() && !directory.mkdirs()){
+            Log.w(TAG,"can not create " + directory);
+            return null;
+        }
+        try {
+            /**
+             * 参数1:数据的缓存地址,每个分片一个子目录
+             * 参数2:版本号变化时会清空所有缓存文件
+             * 参数3:单个节点所应用的数据个数,这里为图片数据和图片信息两个
+             * 参数4:缓存总量 超容量时策略为LRU
+             * 参数5:分片数
+             */
+            ShardedDiskCache diskCache = ShardedDiskCache.open(directory,DISK_CACHE_VERSION,
+                    DISK_CACHE_VALUE_COUNT,calculateDiskCacheSize(getUsableSpace(directory)),
+                    DISK_CACHE_SHARD_COUNT);
+            //已缓存的文件也算作可用空间,否则缓存越大,下次启动算出的容量越小
+            long maxSize = calculateDiskCacheSize(getUsableSpace(directory) + diskCache.size());
+            diskCache.setMaxSize(maxSize);
+            Log.i(TAG,"disk cache " + directory + ", maxSize=" + maxSize);
+            openLegacyDiskCache(directory);
+            return diskCache;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 根据可用空间计算磁盘缓存容量
+     * 可用空间很小时使用一个较小的缓存,不超过可用空间的一半,但至少为FALLBACK_DISK_CACHE_SIZE
+     * @param available 可用字节数
+     * @return
+     */
+    static long calculateDiskCacheSize(long available) {
+        long size = available / 100 * DISK_CACHE_PERCENT;
+        size = Math.max(MIN_DISK_CACHE_SIZE,Math.min(MAX_DISK_CACHE_SIZE,size));
+        size = Math.min(size,available / 2);
+        return Math.max(FALLBACK_DISK_CACHE_SIZE,size);
+    }
+
+    /**
+     * 打开升级前的磁盘缓存,之后在新缓存未命中时从中迁移条目
+     * 分片之前的缓存直接保存在directory下,先将其中的文件(日志和缓存文件)移到单独的子目录:
+     * DiskLruCache发现日志损坏时会删除整个目录,不能让它删掉各分片
+     * 旧缓存可能是版本1(只有图片数据)或版本2(图片数据和图片信息),按日志头打开;所有条目迁移完后删除
+     * @param directory
+     */
+    private void openLegacyDiskCache(File directory) {
+        File legacyDirectory = new File(directory,LEGACY_DISK_CACHE_DIR);
+        if(new File(directory,"journal").exists()){
+            File[] files = directory.listFiles();
+            if(files != null && (legacyDirectory.exists() || legacyDirectory.mkdirs())){
+                for (File file : files) {
+                    if(file.isFile() && !file.renameTo(new File(legacyDirectory,file.getName()))){
+                        Log.w(TAG,"can not move " + file);
+                    }
+                }
+            }
+        }
+        File journal = new File(legacyDirectory,"journal");
+        if(!journal.exists()){
+            return;
+        }
+        try {
+            int[] header = readJournalHeader(journal);
+            if(header != null){
+                //容量不限,旧缓存只会因迁移而变小
+                DiskLruCache legacyCache = DiskLruCache.open(legacyDirectory,header[0],header[1],Long.MAX_VALUE);
+                if(legacyCache.size() > 0){
+                    Log.i(TAG,"legacy disk cache " + legacyDirectory + ", size=" + legacyCache.size());
+                    mLegacyValueCount = header[1];
+                    mLegacyDiskCache = legacyCache;
+                    return;
+                }
+                legacyCache.delete();
+                return;
+            }
+        } catch (IOException e) {
+            Log.w(TAG,"openLegacyDiskCache failed:" + e);
+        }
+        deleteDirectory(legacyDirectory);
+    }
+
+    /**
+     * 读取DiskLruCache日志头中的版本号和value个数
+     * @param journal
+     * @return {appVersion, valueCount},不是DiskLruCache的日志时返回null
+     * @throws IOException
+     */
+    private static int[] readJournalHeader(File journal) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal),"US-ASCII"));
+        try {
+            String magic = reader.readLine();
+            String version = reader.readLine();
+            String appVersion = reader.readLine();
+            String valueCount = reader.readLine();
+            if(!JOURNAL_MAGIC.equals(magic) || !JOURNAL_VERSION.equals(version)
+                    || appVersion == null || valueCount == null){
+                return null;
+            }
+            return new int[]{Integer.parseInt(appVersion),Integer.parseInt(valueCount)};
+        } catch (NumberFormatException e) {
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if(files != null){
+            for (File file : files) {
+                if(!file.delete()){
+                    Log.w(TAG,"can not delete " + file);
+                }
+            }
+        }
+        directory.delete();
+    }
+
     /**
      * 获取文件或文件夹可使用的容量
      * @param file
@@ -529,15 +2948,529 @@ public class ImageLoader {
         return (long) stats.getBlockSize() * stats.getAvailableBlocks();
     }
 
+    /**
+     * 渐进式解码:下载过程中从正在写入的缓存文件解码低分辨率预览图,交给主线程显示
+     * 数据直接映射已写入的文件页,不额外读取文件;只有JPEG等支持部分解码的格式会得到预览图
+     */
+    private class ProgressiveDecode implements IoUtils.ProgressListener {
+        private final InFlightLoad mLoad;
+        private final String mKey;
+
+        /**
+         * 数据总长度,未知时为-1
+         */
+        private final long mContentLength;
+
+        /**
+         * 下载到多少字节时解码下一张预览图
+         */
+        private long mNextBytes = PROGRESSIVE_MIN_BYTES;
+        private long mLastPreviewTime;
+        private int[] mSize;
+
+        public ProgressiveDecode(InFlightLoad load, String key, long contentLength) {
+            mLoad = load;
+            mKey = key;
+            mContentLength = contentLength;
+        }
+
+        @Override
+        public void onProgress(long bytes) {
+            //下载完成后会解码完整的图片
+            if(bytes < mNextBytes || mLoad.cancelled || (mContentLength > 0 && bytes >= mContentLength)){
+                return;
+            }
+            if(SystemClock.uptimeMillis() - mLastPreviewTime < PROGRESSIVE_INTERVAL){
+                return;
+            }
+            //长度已知时大约每1/4解码一次,未知时每次数据量翻倍解码一次
+            mNextBytes = mContentLength > 0 ? bytes + mContentLength / 4 : bytes * 2;
+
+            List<ImageView> targets;
+            synchronized (mInFlightLoads) {
+                targets = new ArrayList<ImageView>(mLoad.targets);
+            }
+            if(targets.isEmpty()){
+                return;
+            }
+            ByteBuffer buffer = mapDirtyFile(mKey);
+            if(buffer == null){
+                return;
+            }
+            if(mSize == null){
+                BitmapFactory.Options options = mImageResizer.decodeBoundsFromByteBuffer(buffer);
+                if(options.outWidth <= 0 || options.outHeight <= 0){
+                    return;
+                }
+                mSize = new int[]{options.outWidth,options.outHeight};
+            }
+            int inSampleSize = ImageResizer.calculateInSampleSize(mSize[0],mSize[1],
+                    mLoad.reqWidth,mLoad.reqHeight) * PROGRESSIVE_SAMPLE_FACTOR;
+            Bitmap preview = mImageResizer.decodePreviewFromByteBuffer(buffer,inSampleSize);
+            mLastPreviewTime = SystemClock.uptimeMillis();
+            if(preview == null){
+                return;
+            }
+            acquireBitmap(preview);
+            postResult(new LoaderResult(mLoad,targets,mLoad.uri,preview,true));
+        }
+    }
+
+    /**
+     * 读取到的磁盘缓存条目
+     */
+    private static class DiskEntry {
+        /**
+         * 保存图片数据的条目key,不是别名时就是读取的key
+         */
+        public final String dataKey;
+
+        /**
+         * 数据条目的Snapshot
+         */
+        public final DiskLruCache.Snapshot snapshot;
+
+        /**
+         * 读取的条目本身的图片信息
+         */
+        public final DiskCacheMetadata metadata;
+
+        public DiskEntry(String dataKey, DiskLruCache.Snapshot snapshot, DiskCacheMetadata metadata) {
+            this.dataKey = dataKey;
+            this.snapshot = snapshot;
+            this.metadata = metadata;
+        }
+    }
+
     private static class LoaderResult {
-        public ImageView imageView;
+        public InFlightLoad load;
+        public List<ImageView> imageViews;
         public String uri;
         public Bitmap bitmap;
 
-        public LoaderResult(ImageView imageView, String uri, Bitmap bitmap) {
-            this.imageView = imageView;
+        /**
+         * 是否为渐进加载的预览图
+         */
+        public boolean preview;
+
+        public LoaderResult(InFlightLoad load, List<ImageView> imageViews, String uri, Bitmap bitmap,
+                            boolean preview) {
+            this.load = load;
+            this.imageViews = imageViews;
+            this.uri = uri;
+            this.bitmap = bitmap;
+            this.preview = preview;
+        }
+    }
+
+    /**
+     * bindBitmaps中的一项
+     */
+    public static class BindRequest {
+        public final String uri;
+        public final ImageView imageView;
+
+        /**
+         * 请求尺寸,不大于0时按imageView的大小
+         */
+        public final int reqWidth;
+        public final int reqHeight;
+
+        /**
+         * 解码策略,为null时使用Builder中设置的默认策略
+         */
+        public final DecodeOptions options;
+
+        public BindRequest(String uri, ImageView imageView) {
+            this(uri,imageView,0,0,null);
+        }
+
+        public BindRequest(String uri, ImageView imageView, int reqWidth, int reqHeight,
+                           DecodeOptions options) {
             this.uri = uri;
+            this.imageView = imageView;
+            this.reqWidth = reqWidth;
+            this.reqHeight = reqHeight;
+            this.options = options;
+        }
+    }
+
+    /**
+     * 读取内存/磁盘缓存并解码,在DISK_EXECUTOR中执行
+     * 磁盘未命中时转交给NETWORK_EXECUTOR下载,下载完成后再回到这里解码
+     */
+    private class DiskTask extends PriorityTask {
+        private final InFlightLoad mLoad;
+
+        /**
+         * 是否已经下载过,避免下载失败时反复转交
+         */
+        private final boolean mDownloaded;
+
+        /**
+         * 是否因磁盘缓存尚未打开被推迟过,重新执行时不再重复统计
+         */
+        private boolean mDeferred;
+
+        public DiskTask(InFlightLoad load, boolean downloaded) {
+            super(load.priority,load.sequence);
+            mLoad = load;
+            mDownloaded = downloaded;
+        }
+
+        @Override
+        public void run() {
+            if(deferIfPrefetchPaused(this,mLoad)){
+                return;
+            }
+            if(!mDeferred){
+                mStats.queueWait().recordNanos(getWaitNanos());
+            }
+            if(mLoad.cancelled){
+                finishLoad(mLoad,null);
+                return;
+            }
+            if(!mLoad.decode){
+                //只预加载到磁盘缓存
+                if(deferUntilDiskCacheReady(this)){
+                    mDeferred = true;
+                    return;
+                }
+                boolean cached = mDownloaded;
+                if(!cached){
+                    try {
+                        cached = isInDiskCache(hashKeyFormUrl(mLoad.uri));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if(cached || !mIsDiskLruCacheCreated){
+                    finishLoad(mLoad,null);
+                } else {
+                    NETWORK_EXECUTOR.execute(new NetworkTask(mLoad));
+                }
+                return;
+            }
+            Bitmap bitmap = loadBitmapFromMemCache(mLoad.uri,mLoad.reqWidth,mLoad.reqHeight,mLoad.options,true);
+            if(!mDownloaded && !mDeferred){
+                recordMemoryLookup(bitmap);
+            }
+            if(bitmap == null && mLoad.downloaded != null){
+                //直接解码刚下载文件的内存映射
+                bitmap = decodeBitmapFromByteBuffer(hashKeyFormUrl(mLoad.uri),mLoad.downloaded,
+                        mLoad.reqWidth,mLoad.reqHeight,mLoad.options);
+                mLoad.downloaded = null;
+            }
+            if(bitmap == null){
+                bitmap = loadBitmapFromEncodedCache(mLoad.uri,mLoad.reqWidth,mLoad.reqHeight,mLoad.options);
+            }
+            //内存中没有时,磁盘缓存打开后再读取磁盘或下载
+            if(bitmap == null && deferUntilDiskCacheReady(this)){
+                mDeferred = true;
+                return;
+            }
+            if(bitmap == null){
+                try {
+                    bitmap = loadBitmapFromDiskCache(mLoad.uri,mLoad.reqWidth,mLoad.reqHeight,mLoad.options);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if(bitmap != null || mDownloaded || mLoad.cancelled){
+                finishLoad(mLoad,bitmap);
+                return;
+            }
+            NETWORK_EXECUTOR.execute(new NetworkTask(mLoad));
+        }
+    }
+
+    /**
+     * 从网络下载图片,在NETWORK_EXECUTOR中执行
+     */
+    private class NetworkTask extends PriorityTask {
+        private final InFlightLoad mLoad;
+
+        public NetworkTask(InFlightLoad load) {
+            super(load.priority,load.sequence);
+            mLoad = load;
+        }
+
+        @Override
+        public void run() {
+            if(deferIfPrefetchPaused(this,mLoad)){
+                return;
+            }
+            mStats.queueWait().recordNanos(getWaitNanos());
+            if(mLoad.cancelled){
+                finishLoad(mLoad,null);
+                return;
+            }
+            if(!mIsDiskLruCacheCreated){//若没有使用DiskLruCache则直接从网络下载解码
+                Log.w(TAG,"DiskLruCache is not created");
+                finishLoad(mLoad,downloadBitmapFromUrl(mLoad.uri));
+                return;
+            }
+            String key = hashKeyFormUrl(mLoad.uri);
+            //同一图片已有线程在下载时不占用下载线程等待,那个下载完成后再由磁盘线程读取
+            if(!beginDownload(key,new DiskTask(mLoad,true))){
+                return;
+            }
+            try {
+                //排队期间可能已被其他请求下载过
+                if(!isInDiskCache(key)){
+                    ByteBuffer downloaded = downloadToDiskCache(mLoad.uri,key,null,mLoad);
+                    if(mLoad.decode){
+                        mLoad.downloaded = downloaded;
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                endDownload(key);
+            }
+            if(mLoad.cancelled){
+                finishLoad(mLoad,null);
+                return;
+            }
+            //解码回到磁盘线程池执行;下载失败时由磁盘线程再尝试读取一次磁盘缓存
+            DISK_EXECUTOR.execute(new DiskTask(mLoad,true));
+        }
+    }
+
+    /**
+     * 打开分块解码,在DISK_EXECUTOR中执行
+     * 磁盘缓存打开前推迟;不在磁盘缓存中时交给TiledDownloadTask下载,下载完成后再执行一次
+     */
+    private class OpenTiledTask extends PriorityTask {
+        private final String mUri;
+        private final TiledImage.OpenListener mListener;
+
+        /**
+         * 是否已经下载过,避免下载失败时反复转交
+         */
+        private final boolean mDownloaded;
+
+        public OpenTiledTask(String uri, TiledImage.OpenListener listener, boolean downloaded) {
+            super(PriorityTask.PRIORITY_NORMAL);
+            mUri = uri;
+            mListener = listener;
+            mDownloaded = downloaded;
+        }
+
+        @Override
+        public void run() {
+            if(deferUntilDiskCacheReady(this)){
+                return;
+            }
+            TiledImage image = null;
+            try {
+                image = openTiledImageFromDiskCache(mUri);
+            } catch (IOException e) {
+                Log.w(TAG,"openTiledImage failed:" + e);
+            }
+            if(image == null && !mDownloaded && mIsDiskLruCacheCreated){
+                NETWORK_EXECUTOR.execute(new TiledDownloadTask(mUri,mListener));
+                return;
+            }
+            final TiledImage result = image;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(result != null){
+                        mListener.onOpened(result);
+                    } else {
+                        mListener.onFailed(mUri);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 下载要分块解码的图片,在NETWORK_EXECUTOR中执行,完成后回到磁盘线程池打开
+     */
+    private class TiledDownloadTask extends PriorityTask {
+        private final String mUri;
+        private final TiledImage.OpenListener mListener;
+
+        public TiledDownloadTask(String uri, TiledImage.OpenListener listener) {
+            super(PriorityTask.PRIORITY_NORMAL);
+            mUri = uri;
+            mListener = listener;
+        }
+
+        @Override
+        public void run() {
+            String key = hashKeyFormUrl(mUri);
+            OpenTiledTask openTask = new OpenTiledTask(mUri,mListener,true);
+            //其他线程正在下载同一图片时不等待,那个下载完成后再打开
+            if(!beginDownload(key,openTask)){
+                return;
+            }
+            try {
+                if(!isInDiskCache(key)){
+                    downloadToDiskCache(mUri,key,null,null);
+                }
+            } catch (IOException e) {
+                Log.w(TAG,"openTiledImage download failed:" + e);
+            } finally {
+                endDownload(key);
+            }
+            DISK_EXECUTOR.execute(openTask);
+        }
+    }
+
+    /**
+     * 正在进行的下载
+     */
+    private static class ActiveDownload {
+        /**
+         * 下载结束时打开,同步加载在这里等待
+         */
+        public final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * 等待这个下载的后续任务,在mActiveDownloads的锁内访问
+         */
+        public final List<PriorityTask> waiters = new ArrayList<PriorityTask>(1);
+    }
+
+    /**
+     * bitmap的引用计数
+     */
+    private static class BitmapRef {
+        /**
+         * 正在显示以及等待显示的引用数,内存缓存中的条目也持有一个
+         * 归零后bitmap已进入复用池,不能再增加
+         */
+        public final AtomicInteger count = new AtomicInteger(1);
+
+        /**
+         * 被淘汰时的内存缓存key
+         */
+        public volatile String key;
+
+        /**
+         * 计数不为0时增加一个引用
+         * @return 已归零时返回false
+         */
+        public boolean tryAcquire() {
+            while (true) {
+                int current = count.get();
+                if(current <= 0){
+                    return false;
+                }
+                if(count.compareAndSet(current,current + 1)){
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 内存缓存的条目,带着bitmap的引用计数,取出时不必再查找mBitmapRefs
+     */
+    private static class CachedBitmap {
+        public final Bitmap bitmap;
+        public final BitmapRef ref;
+
+        public CachedBitmap(Bitmap bitmap, BitmapRef ref) {
             this.bitmap = bitmap;
+            this.ref = ref;
+        }
+    }
+
+    /**
+     * 等待imageView布局完成得到大小后再加载,只在主线程使用
+     * 只弱引用imageView,不影响mPendingSizes对imageView的弱引用
+     */
+    private class PendingSize implements ViewTreeObserver.OnPreDrawListener {
+        private final String mUri;
+        private final WeakReference<ImageView> mImageView;
+        private final DecodeOptions mOptions;
+
+        public PendingSize(String uri, ImageView imageView, DecodeOptions options) {
+            mUri = uri;
+            mImageView = new WeakReference<ImageView>(imageView);
+            mOptions = options;
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            ImageView imageView = mImageView.get();
+            if(imageView == null){
+                return true;
+            }
+            int width = getTargetWidth(imageView);
+            int height = getTargetHeight(imageView);
+            if(width > 0 && height > 0){
+                //bindBitmap中会移除监听
+                bindBitmap(mUri,imageView,width,height,mOptions);
+            }
+            return true;
+        }
+
+        /**
+         * 添加监听时imageView可能还没有attach,那时的ViewTreeObserver在attach后失效,
+         * 这里从imageView重新获取
+         * @param imageView
+         */
+        public void unregister(ImageView imageView) {
+            ViewTreeObserver observer = imageView.getViewTreeObserver();
+            if(observer.isAlive()){
+                observer.removeOnPreDrawListener(this);
+            }
+        }
+    }
+
+    /**
+     * 正在进行中的一次加载,记录所有等待该结果的imageView
+     * targets只在持有mInFlightLoads锁时修改
+     */
+    private static class InFlightLoad {
+        public final String key;
+        public final String uri;
+        public final int reqWidth;
+        public final int reqHeight;
+        public final DecodeOptions options;
+        public final int priority;
+
+        /**
+         * 是否解码,只预加载到磁盘缓存时为false
+         */
+        public final boolean decode;
+        public final long sequence;
+        public final List<ImageView> targets = new ArrayList<ImageView>(1);
+
+        /**
+         * 已没有imageView等待结果,尚未开始的阶段不再执行
+         */
+        public volatile boolean cancelled;
+
+        /**
+         * 网络阶段刚写入磁盘缓存文件的内存映射,交给解码阶段使用
+         */
+        public volatile ByteBuffer downloaded;
+
+        /**
+         * @param sequence 排队序号,同一批绑定的任务共用一个序号
+         */
+        public InFlightLoad(String key, String uri, int reqWidth, int reqHeight, DecodeOptions options,
+                            int priority, boolean decode, long sequence) {
+            this.key = key;
+            this.sequence = sequence;
+            this.uri = uri;
+            this.reqWidth = reqWidth;
+            this.reqHeight = reqHeight;
+            this.options = options;
+            this.priority = priority;
+            this.decode = decode;
+        }
+
+        public void addTarget(ImageView imageView) {
+            if(!targets.contains(imageView)){
+                targets.add(imageView);
+            }
         }
     }
 
@@ -3,9 +3,11 @@ package com.jikexueyuan.imageloaderapp.view;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Build;
 import android.util.Log;
 
 import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
 
 /**
  * 图片压缩功能
@@ -14,9 +16,18 @@ import java.io.FileDescriptor;
 public class ImageResizer {
     private static final String TAG = "ImageResizer";
 
+    /**
+     * bitmap复用池,为null时不复用
+     */
+    private BitmapPool mBitmapPool;
+
     public ImageResizer() {
     }
 
+    public ImageResizer(BitmapPool bitmapPool) {
+        mBitmapPool = bitmapPool;
+    }
+
     /**
      * 根据资源文件获取一张缩放后的bitmap
      * @param res
@@ -35,7 +46,17 @@ public class ImageResizer {
         //计算缩放比
         options.inSampleSize = calculateInSampleSize(options,reqWidth,reqHeight);
         options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeResource(res,resId,options);
+        addInBitmapOptions(options,options.outWidth,options.outHeight);
+        try {
+            return BitmapFactory.decodeResource(res,resId,options);
+        } catch (IllegalArgumentException e) {
+            if(options.inBitmap == null){
+                throw e;
+            }
+            Log.w(TAG,"inBitmap can not be reused," + e);
+            options.inBitmap = null;
+            return BitmapFactory.decodeResource(res,resId,options);
+        }
     }
 
     /**
@@ -46,14 +67,205 @@ public class ImageResizer {
      * @return
      */
     public Bitmap decodeSampledBitmapFromFileDescripter(FileDescriptor fd,int reqWidth,int reqHeight){
+        final BitmapFactory.Options options = decodeBoundsFromFileDescripter(fd);
+
+        //计算缩放比
+        return decodeSampledBitmapFromFileDescripter(fd,options.outWidth,options.outHeight,
+                calculateInSampleSize(options,reqWidth,reqHeight));
+    }
+
+    /**
+     * 只解析图片的原始宽高(outWidth,outHeight),不分配像素内存
+     * @param fd
+     * @return
+     */
+    public BitmapFactory.Options decodeBoundsFromFileDescripter(FileDescriptor fd){
         final BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeFileDescriptor(fd,null,options);
+        return options;
+    }
 
-        //计算缩放比
-        options.inSampleSize = calculateInSampleSize(options,reqWidth,reqHeight);
-        options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeFileDescriptor(fd,null,options);
+    /**
+     * 原始宽高和采样率已经算好时直接解码
+     * @param fd
+     * @param width 原始宽
+     * @param height 原始高
+     * @param inSampleSize
+     * @return
+     */
+    public Bitmap decodeSampledBitmapFromFileDescripter(FileDescriptor fd,int width,int height,int inSampleSize){
+        return decodeSampledBitmapFromFileDescripter(fd,new DecodeSpec(width,height,inSampleSize));
+    }
+
+    /**
+     * 按解码参数(采样率、Config、精确缩放)直接解码
+     * @param fd
+     * @param spec
+     * @return
+     */
+    public Bitmap decodeSampledBitmapFromFileDescripter(FileDescriptor fd,DecodeSpec spec){
+        final BitmapFactory.Options options = createDecodeOptions(spec);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFileDescriptor(fd,null,options);
+        } catch (IllegalArgumentException e) {
+            //复用的bitmap不满足条件时,放弃复用重新解码
+            if(options.inBitmap == null){
+                throw e;
+            }
+            Log.w(TAG,"inBitmap can not be reused," + e);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFileDescriptor(fd,null,options);
+        }
+        return clearDensity(bitmap,spec);
+    }
+
+    /**
+     * 只解析内存中(如内存映射文件、编码数据缓存)图片的原始宽高
+     * @param buffer
+     * @return
+     */
+    public BitmapFactory.Options decodeBoundsFromByteBuffer(ByteBuffer buffer){
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeByteBuffer(buffer,options);
+        return options;
+    }
+
+    /**
+     * 从内存中(如内存映射文件、编码数据缓存)的图片数据解码
+     * @param buffer
+     * @param width 原始宽
+     * @param height 原始高
+     * @param inSampleSize
+     * @return
+     */
+    public Bitmap decodeSampledBitmapFromByteBuffer(ByteBuffer buffer,int width,int height,int inSampleSize){
+        return decodeSampledBitmapFromByteBuffer(buffer,new DecodeSpec(width,height,inSampleSize));
+    }
+
+    /**
+     * 按解码参数从内存中的图片数据解码
+     * @param buffer
+     * @param spec
+     * @return
+     */
+    public Bitmap decodeSampledBitmapFromByteBuffer(ByteBuffer buffer,DecodeSpec spec){
+        final BitmapFactory.Options options = createDecodeOptions(spec);
+        Bitmap bitmap;
+        try {
+            bitmap = decodeByteBuffer(buffer,options);
+        } catch (IllegalArgumentException e) {
+            if(options.inBitmap == null){
+                throw e;
+            }
+            Log.w(TAG,"inBitmap can not be reused," + e);
+            options.inBitmap = null;
+            bitmap = decodeByteBuffer(buffer,options);
+        }
+        return clearDensity(bitmap,spec);
+    }
+
+    /**
+     * 根据解码参数设置采样率、Config和精确缩放,并尝试从复用池取出inBitmap
+     * @param spec
+     * @return
+     */
+    private BitmapFactory.Options createDecodeOptions(DecodeSpec spec) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = spec.inSampleSize;
+        options.inPreferredConfig = spec.config;
+        if(spec.isScaled()){
+            //采样之后再按targetDensity/density缩放,解码时一次完成,不需要额外的缩放bitmap
+            options.inScaled = true;
+            options.inDensity = spec.density;
+            options.inTargetDensity = spec.targetDensity;
+        }
+        addInBitmapOptions(options,spec);
+        return options;
+    }
+
+    /**
+     * 精确缩放时解码结果的density被设置为inTargetDensity,显示时会被再次按屏幕密度缩放,
+     * 这里改为DENSITY_NONE,按像素原样显示
+     * @param bitmap
+     * @param spec
+     * @return
+     */
+    private static Bitmap clearDensity(Bitmap bitmap, DecodeSpec spec) {
+        if(bitmap != null && spec.isScaled()){
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 根据图片格式判断是否一定不透明,可以用RGB_565解码
+     * 目前只认为JPEG不透明;PNG、WebP、GIF都可能带透明通道
+     * @param mimeType 解析宽高时得到的outMimeType
+     * @return
+     */
+    public static boolean isOpaque(String mimeType) {
+        return "image/jpeg".equals(mimeType);
+    }
+
+    /**
+     * 从不完整的图片数据解码预览图,不使用复用池
+     * 截断的JPEG可以解码出已下载的部分,渐进式JPEG则是整张较模糊的图;数据不足以解码时返回null
+     * @param buffer 已下载的部分数据
+     * @param inSampleSize
+     * @return
+     */
+    public Bitmap decodePreviewFromByteBuffer(ByteBuffer buffer,int inSampleSize){
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = inSampleSize;
+        return decodeByteBuffer(buffer,options);
+    }
+
+    /**
+     * 堆内存中的数据直接使用decodeByteArray,堆外内存/内存映射则以流的方式读取
+     * @param buffer
+     * @param options
+     * @return
+     */
+    private static Bitmap decodeByteBuffer(ByteBuffer buffer, BitmapFactory.Options options) {
+        if(buffer.hasArray()){
+            return BitmapFactory.decodeByteArray(buffer.array(),buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining(),options);
+        }
+        return BitmapFactory.decodeStream(new ByteBufferInputStream(buffer),null,options);
+    }
+
+    /**
+     * 设置inMutable使解码出的bitmap之后可以进入复用池,并尝试从复用池取出inBitmap
+     * @param options 已设置好inSampleSize
+     * @param width 原始宽
+     * @param height 原始高
+     */
+    private void addInBitmapOptions(BitmapFactory.Options options, int width, int height) {
+        addInBitmapOptions(options,new DecodeSpec(width,height,options.inSampleSize));
+    }
+
+    /**
+     * 设置inMutable,并按解码结果的宽高和Config从复用池取出inBitmap
+     * @param options
+     * @param spec
+     */
+    private void addInBitmapOptions(BitmapFactory.Options options, DecodeSpec spec) {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB){
+            return;
+        }
+        options.inMutable = true;
+        if(mBitmapPool == null || spec.width <= 0 || spec.height <= 0){
+            return;
+        }
+        //4.4以下只能复用尺寸完全一致的bitmap,采样、缩放后的尺寸无法精确预知
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT
+                && (spec.inSampleSize > 1 || spec.isScaled())){
+            return;
+        }
+        options.inBitmap = mBitmapPool.get(spec.width,spec.height,spec.config);
     }
 
     /**
@@ -64,13 +276,23 @@ public class ImageResizer {
      * @return
      */
     private int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        Log.i(TAG,"origin w=" + options.outWidth + ", h=" +options.outHeight);
+        return calculateInSampleSize(options.outWidth,options.outHeight,reqWidth,reqHeight);
+    }
+
+    /**
+     * 根据原始宽高计算缩放比,结果为2的幂
+     * @param width 原始宽
+     * @param height 原始高
+     * @param reqWidth
+     * @param reqHeight
+     * @return
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
         if(reqWidth == 0 || reqHeight == 0){
             return 1;
         }
 
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        Log.i(TAG,"origin w=" + width + ", h=" +height);
         int inSampleSize = 1;
 
         if(height > reqHeight || width > reqWidth){
@@ -0,0 +1,121 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * 流拷贝工具
+ */
+public final class IoUtils {
+
+    /**
+     * 单次读写的缓冲区大小
+     */
+    public static final int BUFFER_SIZE = 8 * 1024;
+
+    private IoUtils() {
+    }
+
+    /**
+     * 拷贝进度回调
+     */
+    public interface ProgressListener {
+        /**
+         * 每次写入输出流后调用,在拷贝线程中执行
+         * @param bytes 已写入的总字节数
+         */
+        void onProgress(long bytes);
+    }
+
+    /**
+     * 将输入流全部拷贝到输出流,返回拷贝的字节数
+     * 两端都是文件时直接使用FileChannel.transferTo,由内核完成拷贝,
+     * transferTo中途不再前进时剩下的部分以及其他情况使用池中的缓冲区整块读写
+     * @param in
+     * @param out
+     * @param pool 缓冲区复用池
+     * @return
+     * @throws IOException
+     */
+    public static long copy(InputStream in, OutputStream out, ByteArrayPool pool) throws IOException {
+        return copy(in, out, pool, null);
+    }
+
+    /**
+     * 将输入流全部拷贝到输出流,每次写入后回调进度
+     * @param in
+     * @param out
+     * @param pool 缓冲区复用池
+     * @param listener 进度回调,为null时两端都是文件则由内核拷贝
+     * @return
+     * @throws IOException
+     */
+    public static long copy(InputStream in, OutputStream out, ByteArrayPool pool,
+                            ProgressListener listener) throws IOException {
+        long count = 0;
+        if (listener == null && in instanceof FileInputStream && out instanceof FileOutputStream) {
+            FileChannel source = ((FileInputStream) in).getChannel();
+            long position = source.position();
+            count = transfer(source, ((FileOutputStream) out).getChannel());
+            if (position + count >= source.size()) {
+                return count;
+            }
+            //transferTo不移动source的位置,从已拷贝处继续读
+            source.position(position + count);
+        }
+
+        byte[] buffer = pool.getBuf(BUFFER_SIZE);
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                count += n;
+                if (listener != null) {
+                    listener.onProgress(count);
+                }
+            }
+            return count;
+        } finally {
+            pool.returnBuf(buffer);
+        }
+    }
+
+    /**
+     * 用transferTo拷贝source从当前位置到末尾的数据
+     * transferTo返回0时(文件在拷贝期间被截断,或者某些系统上内核拷贝不可用)不再重试,避免死循环
+     * @param source
+     * @param target
+     * @return 已拷贝的字节数,可能少于剩余的长度
+     * @throws IOException
+     */
+    private static long transfer(FileChannel source, FileChannel target) throws IOException {
+        long size = source.size();
+        long position = source.position();
+        long count = 0;
+        while (position + count < size) {
+            long transferred = source.transferTo(position + count, size - position - count, target);
+            if (transferred <= 0) {
+                break;
+            }
+            count += transferred;
+        }
+        return count;
+    }
+
+    /**
+     * 计算吞吐量,单位 字节/秒
+     * @param bytes
+     * @param elapsedNanos
+     * @return
+     */
+    public static long bytesPerSecond(long bytes, long elapsedNanos) {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return bytes * 1000000000L / elapsedNanos;
+    }
+}
@@ -0,0 +1,20 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+/**
+ * 计算缓存key之前对url进行规范化
+ * url中常带有与图片内容无关、每次都可能不同的参数(鉴权token、统计id、时间戳),
+ * 或者同一资源有多个域名,原样计算key时同一张图片每次都会成为新的未命中
+ *
+ * 默认不做转换,可以通过ImageLoader.Builder设置,常用的规则见CanonicalKeyStrategy
+ */
+public interface KeyStrategy {
+
+    /**
+     * 返回用于计算缓存key的url,同一张图片的不同url应返回相同结果
+     * 只影响缓存key,下载时仍使用原始url
+     * 可能在主线程中调用,需要足够快,且同一url每次的结果必须相同
+     * @param url 原始url
+     * @return 规范化后的url
+     */
+    String getCacheUrl(String url);
+}
@@ -0,0 +1,165 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 耗时分布统计,单位微秒
+ *
+ * 与HdrHistogram类似采用对数-线性分桶:小于16微秒的值每个值一个桶,
+ * 之后每个2的幂区间再平分为8个桶,相对误差不超过12.5%
+ * 记录时只做原子自增,不分配任何对象,可以在解码、下载线程中直接调用
+ */
+public class LatencyHistogram {
+
+    /**
+     * 线性区间的桶数
+     */
+    private static final int LINEAR_BUCKETS = 16;
+
+    /**
+     * 每个2的幂区间的子桶数的对数,8个子桶
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * 线性区间之后的第一个指数,2^4 = 16
+     */
+    private static final int FIRST_EXPONENT = 4;
+
+    /**
+     * 能区分的最大指数,2^40微秒约12天,更大的值计入最后一个桶
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (MAX_EXPONENT - FIRST_EXPONENT + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * 记录一次耗时
+     * @param elapsedNanos 纳秒
+     */
+    public void recordNanos(long elapsedNanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    /**
+     * 记录一次耗时
+     * @param micros 微秒
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        mCounts.incrementAndGet(bucketIndex(micros));
+        mCount.incrementAndGet();
+        mSum.addAndGet(micros);
+        long max;
+        while (micros > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, micros)) {
+                break;
+            }
+        }
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * 桶的上界,用于估算分位数
+     * @param index
+     * @return
+     */
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_EXPONENT;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long lowerBound = (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * 统计当前的分布,统计期间仍可并发记录,结果是近似值
+     * @return
+     */
+    public Summary summary() {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        long max = mMax.get();
+        Summary summary = new Summary();
+        summary.count = total;
+        summary.mean = total == 0 ? 0 : mSum.get() / total;
+        summary.p50 = percentile(counts, total, 0.50, max);
+        summary.p90 = percentile(counts, total, 0.90, max);
+        summary.p99 = percentile(counts, total, 0.99, max);
+        summary.max = max;
+        return summary;
+    }
+
+    private static long percentile(long[] counts, long total, double percentile, long max) {
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * 分布的统计结果,单位微秒
+     */
+    public static class Summary {
+        public long count;
+        public long mean;
+        public long p50;
+        public long p90;
+        public long p99;
+        public long max;
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + mean + "us p50=" + p50 + "us p90=" + p90
+                    + "us p99=" + p99 + "us max=" + max + "us";
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ImageLoader的运行统计:各级缓存的命中率、读取的字节数,以及解码、下载、排队的耗时分布
+ * 记录操作只做原子自增,可以在任意线程调用
+ */
+public class LoaderStats {
+
+    /**
+     * bitmap内存缓存
+     */
+    public static final int TIER_MEMORY = 0;
+
+    /**
+     * 编码数据缓存
+     */
+    public static final int TIER_ENCODED = 1;
+
+    /**
+     * 磁盘缓存
+     */
+    public static final int TIER_DISK = 2;
+
+    /**
+     * 网络,命中表示下载成功,未命中表示下载失败
+     */
+    public static final int TIER_NETWORK = 3;
+
+    public static final int TIER_COUNT = 4;
+
+    private static final String[] TIER_NAMES = {"memory", "encoded", "disk", "network"};
+
+    /**
+     * 统计回调
+     */
+    public interface Listener {
+        /**
+         * 定期在主线程中调用
+         * @param snapshot
+         */
+        void onStats(Snapshot snapshot);
+    }
+
+    private final AtomicLongArray mHits = new AtomicLongArray(TIER_COUNT);
+    private final AtomicLongArray mMisses = new AtomicLongArray(TIER_COUNT);
+    private final AtomicLongArray mBytes = new AtomicLongArray(TIER_COUNT);
+
+    /**
+     * 条件请求返回304的次数
+     */
+    private final AtomicLong mNotModified = new AtomicLong();
+
+    /**
+     * 下载的数据与磁盘缓存中已有的相同,只记录别名的次数
+     */
+    private final AtomicLong mDeduplicated = new AtomicLong();
+
+    private final LatencyHistogram mDecodeLatency = new LatencyHistogram();
+    private final LatencyHistogram mDownloadLatency = new LatencyHistogram();
+    private final LatencyHistogram mQueueWait = new LatencyHistogram();
+
+    public void recordHit(int tier) {
+        mHits.incrementAndGet(tier);
+    }
+
+    public void recordMiss(int tier) {
+        mMisses.incrementAndGet(tier);
+    }
+
+    /**
+     * 记录从某一级读取的字节数,内存缓存为bitmap占用的字节数
+     * @param tier
+     * @param bytes
+     */
+    public void recordBytes(int tier, long bytes) {
+        mBytes.addAndGet(tier, bytes);
+    }
+
+    public void recordNotModified() {
+        mNotModified.incrementAndGet();
+    }
+
+    /**
+     * 记录一次磁盘缓存去重
+     */
+    public void recordDeduplicated() {
+        mDeduplicated.incrementAndGet();
+    }
+
+    /**
+     * 解码耗时
+     * @return
+     */
+    public LatencyHistogram decodeLatency() {
+        return mDecodeLatency;
+    }
+
+    /**
+     * 下载耗时,从发出请求到写入磁盘缓存
+     * @return
+     */
+    public LatencyHistogram downloadLatency() {
+        return mDownloadLatency;
+    }
+
+    /**
+     * 任务在线程池队列中的等待时间
+     * @return
+     */
+    public LatencyHistogram queueWait() {
+        return mQueueWait;
+    }
+
+    /**
+     * 生成当前统计的快照,队列长度等运行状态由调用方填入
+     * @return
+     */
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        for (int i = 0; i < TIER_COUNT; i++) {
+            snapshot.hits[i] = mHits.get(i);
+            snapshot.misses[i] = mMisses.get(i);
+            snapshot.bytes[i] = mBytes.get(i);
+        }
+        snapshot.notModified = mNotModified.get();
+        snapshot.deduplicated = mDeduplicated.get();
+        snapshot.decodeLatency = mDecodeLatency.summary();
+        snapshot.downloadLatency = mDownloadLatency.summary();
+        snapshot.queueWait = mQueueWait.summary();
+        return snapshot;
+    }
+
+    /**
+     * 清空所有计数
+     */
+    public void reset() {
+        for (int i = 0; i < TIER_COUNT; i++) {
+            mHits.set(i, 0);
+            mMisses.set(i, 0);
+            mBytes.set(i, 0);
+        }
+        mNotModified.set(0);
+        mDeduplicated.set(0);
+        mDecodeLatency.reset();
+        mDownloadLatency.reset();
+        mQueueWait.reset();
+    }
+
+    /**
+     * 统计快照
+     */
+    public static class Snapshot {
+        public final long[] hits = new long[TIER_COUNT];
+        public final long[] misses = new long[TIER_COUNT];
+        public final long[] bytes = new long[TIER_COUNT];
+        public long notModified;
+
+        /**
+         * 磁盘缓存去重的次数
+         */
+        public long deduplicated;
+
+        /**
+         * KeyStrategy改写了url的次数,以及得到的key之前由另一个url得到过(没有KeyStrategy时会成为新的未命中)的次数
+         * 与各级命中率一起,可以对比设置KeyStrategy前后的效果
+         */
+        public long rewrittenUrls;
+        public long mergedUrls;
+
+        public LatencyHistogram.Summary decodeLatency;
+        public LatencyHistogram.Summary downloadLatency;
+        public LatencyHistogram.Summary queueWait;
+
+        /**
+         * 线程池队列中等待的任务数
+         */
+        public int diskQueueDepth;
+        public int networkQueueDepth;
+
+        /**
+         * 正在执行的任务数
+         */
+        public int diskActiveCount;
+        public int networkActiveCount;
+
+        /**
+         * 尚未完成的加载请求数
+         */
+        public int inFlightLoads;
+
+        /**
+         * 内存缓存当前容量/总容量,单位KB,以及被淘汰的次数
+         */
+        public int memoryCacheSize;
+        public int memoryCacheMaxSize;
+        public int memoryCacheEvictions;
+
+        /**
+         * 编码数据缓存当前容量/总容量,单位B,以及被淘汰的次数
+         */
+        public long encodedCacheSize;
+        public long encodedCacheMaxSize;
+        public int encodedCacheEvictions;
+
+        /**
+         * 某一级的命中率
+         * @param tier
+         * @return 没有访问时为0
+         */
+        public double hitRatio(int tier) {
+            long total = hits[tier] + misses[tier];
+            return total == 0 ? 0 : (double) hits[tier] / total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("ImageLoader stats:");
+            for (int i = 0; i < TIER_COUNT; i++) {
+                builder.append("\n  ").append(TIER_NAMES[i])
+                        .append(" hits=").append(hits[i])
+                        .append(" misses=").append(misses[i])
+                        .append(" ratio=").append(Math.round(hitRatio(i) * 1000) / 10.0).append('%')
+                        .append(" bytes=").append(bytes[i]);
+            }
+            builder.append("\n  notModified=").append(notModified);
+            builder.append("\n  deduplicated=").append(deduplicated);
+            builder.append("\n  keyStrategy rewritten=").append(rewrittenUrls)
+                    .append(" merged=").append(mergedUrls);
+            builder.append("\n  decode ").append(decodeLatency);
+            builder.append("\n  download ").append(downloadLatency);
+            builder.append("\n  queueWait ").append(queueWait);
+            builder.append("\n  queue disk=").append(diskQueueDepth).append('/').append(diskActiveCount)
+                    .append(" network=").append(networkQueueDepth).append('/').append(networkActiveCount)
+                    .append(" inFlight=").append(inFlightLoads);
+            builder.append("\n  memoryCache ").append(memoryCacheSize).append('/').append(memoryCacheMaxSize)
+                    .append("KB evictions=").append(memoryCacheEvictions);
+            builder.append("\n  encodedCache ").append(encodedCacheSize).append('/').append(encodedCacheMaxSize)
+                    .append("B evictions=").append(encodedCacheEvictions);
+            return builder.toString();
+        }
+    }
+}
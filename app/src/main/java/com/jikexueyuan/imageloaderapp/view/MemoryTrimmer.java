@@ -0,0 +1,140 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * 根据系统的内存紧张程度缩小内存缓存,压力解除后逐步恢复
+ *
+ * 容量以原始容量的百分比表示:收到onTrimMemory时按级别降到对应比例,
+ * 之后每隔GROW_INTERVAL没有新的通知,就增加GROW_STEP,直到恢复100%
+ * 界面不可见(级别不低于TRIM_MEMORY_UI_HIDDEN)时不恢复,后台进程的缓存越大越容易被杀;
+ * 回到前台(收到RUNNING_*级别或onForeground)后才开始恢复
+ * 需要通过Context.registerComponentCallbacks注册,回调都在主线程执行
+ */
+public class MemoryTrimmer implements ComponentCallbacks2 {
+
+    /**
+     * 容量变化的接收方
+     */
+    public interface Target {
+        /**
+         * 在主线程调用
+         * @param percent 应保留原始容量的百分比,0表示清空
+         */
+        void onCapacityChanged(int percent);
+    }
+
+    /**
+     * 每次恢复的百分比
+     */
+    private static final int GROW_STEP = 25;
+
+    /**
+     * 恢复的间隔,单位毫秒
+     */
+    private static final long GROW_INTERVAL = 30 * 1000L;
+
+    private final Target mTarget;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 当前容量百分比,只在主线程访问
+     */
+    private int mPercent = 100;
+
+    /**
+     * 界面是否不可见,只在主线程访问
+     */
+    private boolean mInBackground;
+
+    private final Runnable mGrowRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mPercent = Math.min(100, mPercent + GROW_STEP);
+            mTarget.onCapacityChanged(mPercent);
+            scheduleGrow();
+        }
+    };
+
+    public MemoryTrimmer(Target target) {
+        mTarget = target;
+    }
+
+    /**
+     * 各级别应保留的容量比例
+     *      进程在后台且排在LRU列表中后部时全部清空,刚进入后台时保留一部分,以便回到前台时立即显示
+     *      前台运行时按系统内存紧张程度缩小
+     * @param level
+     * @return
+     */
+    public static int getRetainedPercent(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            return 0;
+        } else if (level >= TRIM_MEMORY_BACKGROUND) {
+            return 25;
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            return 50;
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 25;
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            return 50;
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            return 75;
+        }
+        return 100;
+    }
+
+    public int getPercent() {
+        return mPercent;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        mInBackground = level >= TRIM_MEMORY_UI_HIDDEN;
+        shrink(getRetainedPercent(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        //不一定在后台,只缩小容量,不改变前后台状态
+        shrink(getRetainedPercent(TRIM_MEMORY_COMPLETE));
+    }
+
+    /**
+     * 界面重新可见时调用(如Activity.onStart或开始绑定图片),在主线程调用
+     * 回到前台后系统不一定再发送onTrimMemory,由调用方通知后开始恢复容量
+     */
+    public void onForeground() {
+        if (!mInBackground) {
+            return;
+        }
+        mInBackground = false;
+        scheduleGrow();
+    }
+
+    private void shrink(int percent) {
+        if (percent < mPercent) {
+            mPercent = percent;
+            mTarget.onCapacityChanged(percent);
+        }
+        //压力仍在持续,重新计时
+        scheduleGrow();
+    }
+
+    /**
+     * 容量未恢复且在前台时,GROW_INTERVAL后恢复一步
+     */
+    private void scheduleGrow() {
+        mHandler.removeCallbacks(mGrowRunnable);
+        if (mPercent < 100 && !mInBackground) {
+            mHandler.postDelayed(mGrowRunnable, GROW_INTERVAL);
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
@@ -0,0 +1,154 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import android.widget.AbsListView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 根据列表滑动位置预加载接下来N行的图片
+ * 快速滑动(fling)时暂停预加载,停下后继续
+ *
+ * RecyclerView可以在自己的OnScrollListener中调用onVisibleRangeChanged和onScrollStateChanged(int)
+ */
+public class PrefetchScrollListener implements AbsListView.OnScrollListener {
+
+    /**
+     * 根据位置提供图片地址
+     */
+    public interface UriProvider {
+        /**
+         * @param position
+         * @return 该位置的图片地址,没有图片时返回null
+         */
+        String getUri(int position);
+    }
+
+    private final ImageLoader mImageLoader;
+    private final UriProvider mUriProvider;
+    private final int mPrefetchCount;
+    private final int mReqWidth;
+    private final int mReqHeight;
+    private final boolean mDecode;
+    private final AbsListView.OnScrollListener mDelegate;
+
+    /**
+     * 上次可见的第一项,用于判断滑动方向
+     */
+    private int mLastFirstVisible = -1;
+
+    /**
+     * 上次预加载的范围[mPrefetchedStart, mPrefetchedEnd),窗口重叠部分不再重复请求
+     */
+    private int mPrefetchedStart;
+    private int mPrefetchedEnd;
+
+    public PrefetchScrollListener(ImageLoader imageLoader, UriProvider uriProvider, int prefetchCount,
+                                  int reqWidth, int reqHeight) {
+        this(imageLoader,uriProvider,prefetchCount,reqWidth,reqHeight,false,null);
+    }
+
+    /**
+     * @param imageLoader
+     * @param uriProvider
+     * @param prefetchCount 预加载的行数
+     * @param reqWidth 绑定时的请求尺寸
+     * @param reqHeight
+     * @param decode 是否同时解码放入内存缓存,否则只写入磁盘缓存
+     * @param delegate 列表原有的OnScrollListener,可以为null
+     */
+    public PrefetchScrollListener(ImageLoader imageLoader, UriProvider uriProvider, int prefetchCount,
+                                  int reqWidth, int reqHeight, boolean decode,
+                                  AbsListView.OnScrollListener delegate) {
+        mImageLoader = imageLoader;
+        mUriProvider = uriProvider;
+        mPrefetchCount = prefetchCount;
+        mReqWidth = reqWidth;
+        mReqHeight = reqHeight;
+        mDecode = decode;
+        mDelegate = delegate;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        onScrollStateChanged(scrollState);
+        if(mDelegate != null){
+            mDelegate.onScrollStateChanged(view,scrollState);
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        onVisibleRangeChanged(firstVisibleItem,visibleItemCount,totalItemCount);
+        if(mDelegate != null){
+            mDelegate.onScroll(view,firstVisibleItem,visibleItemCount,totalItemCount);
+        }
+    }
+
+    /**
+     * 滑动状态变化,取值与AbsListView.OnScrollListener的SCROLL_STATE_*相同
+     * (RecyclerView的SCROLL_STATE_SETTLING对应SCROLL_STATE_FLING)
+     * @param scrollState
+     */
+    public void onScrollStateChanged(int scrollState) {
+        if(scrollState == SCROLL_STATE_FLING){
+            mImageLoader.pausePrefetch();
+        } else {
+            mImageLoader.resumePrefetch();
+        }
+    }
+
+    /**
+     * 可见范围变化时预加载滑动方向上接下来的mPrefetchCount项
+     * @param firstVisibleItem
+     * @param visibleItemCount
+     * @param totalItemCount
+     */
+    public void onVisibleRangeChanged(int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if(visibleItemCount <= 0 || totalItemCount <= 0 || firstVisibleItem == mLastFirstVisible){
+            return;
+        }
+        boolean forward = firstVisibleItem >= mLastFirstVisible;
+        mLastFirstVisible = firstVisibleItem;
+
+        int start;
+        int end;
+        if(forward){
+            start = firstVisibleItem + visibleItemCount;
+            end = Math.min(totalItemCount,start + mPrefetchCount);
+        } else {
+            end = firstVisibleItem;
+            start = Math.max(0,end - mPrefetchCount);
+        }
+        if(start >= end){
+            return;
+        }
+
+        List<String> uris = new ArrayList<String>(end - start);
+        if(forward){
+            for (int i = start; i < end; i++) {
+                addUri(uris,i);
+            }
+        } else {
+            //向上滑动时离可见区域近的先请求
+            for (int i = end - 1; i >= start; i--) {
+                addUri(uris,i);
+            }
+        }
+        mPrefetchedStart = start;
+        mPrefetchedEnd = end;
+        if(!uris.isEmpty()){
+            mImageLoader.prefetch(uris,mReqWidth,mReqHeight,mDecode);
+        }
+    }
+
+    private void addUri(List<String> uris, int position) {
+        if(position >= mPrefetchedStart && position < mPrefetchedEnd){
+            return;
+        }
+        String uri = mUriProvider.getUri(position);
+        if(uri != null){
+            uris.add(uri);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带优先级的任务,配合PriorityBlockingQueue使用
+ * 优先级高的先执行;优先级相同时后提交的先执行(LIFO),
+ * 这样列表快速滑动时,当前可见的最新请求不必排在已经滑出屏幕的旧请求后面
+ *
+ * 注意:只能通过execute提交,submit会包装成FutureTask从而丢失优先级
+ */
+public abstract class PriorityTask implements Runnable, Comparable<PriorityTask> {
+
+    /**
+     * 预加载等后台请求
+     */
+    public static final int PRIORITY_LOW = 0;
+
+    /**
+     * 当前可见的imageView的请求
+     */
+    public static final int PRIORITY_NORMAL = 1;
+
+    /**
+     * 打开磁盘缓存等其他请求都在等待的任务
+     */
+    public static final int PRIORITY_HIGH = 2;
+
+    private static final AtomicLong sSequenceGenerator = new AtomicLong();
+
+    private final int mPriority;
+
+    /**
+     * 提交序号,越大越新
+     */
+    private final long mSequence;
+
+    /**
+     * 创建时间,用于统计排队耗时
+     */
+    private final long mCreateTime = System.nanoTime();
+
+    public PriorityTask(int priority) {
+        this(priority, sSequenceGenerator.incrementAndGet());
+    }
+
+    /**
+     * 同一请求的后续阶段沿用原来的序号
+     * @param priority
+     * @param sequence
+     */
+    public PriorityTask(int priority, long sequence) {
+        mPriority = priority;
+        mSequence = sequence;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * 从创建到现在经过的时间,单位纳秒
+     * @return
+     */
+    public long getWaitNanos() {
+        return System.nanoTime() - mCreateTime;
+    }
+
+    /**
+     * 生成一个新的提交序号
+     * @return
+     */
+    public static long nextSequence() {
+        return sSequenceGenerator.incrementAndGet();
+    }
+
+    /**
+     * 为按顺序提交的一组任务生成序号,第一个最大
+     * 优先级相同时序号大的先执行,这样一组任务按列表中的顺序执行,而不是最后提交的先执行
+     * @param count
+     * @return 长度为count,依次递减
+     */
+    public static long[] descendingSequences(int count) {
+        long last = sSequenceGenerator.addAndGet(count);
+        long[] sequences = new long[count];
+        for (int i = 0; i < count; i++) {
+            sequences[i] = last - i;
+        }
+        return sequences;
+    }
+
+    @Override
+    public int compareTo(PriorityTask another) {
+        if (mPriority != another.mPriority) {
+            return mPriority > another.mPriority ? -1 : 1;
+        }
+        if (mSequence != another.mSequence) {
+            return mSequence > another.mSequence ? -1 : 1;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,186 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 按key前缀拆分成多个DiskLruCache
+ * DiskLruCache的get/edit/commit以及日志写入都在同一把锁上,多个下载线程同时提交时会互相等待;
+ * 拆分后不同分片互不影响,每个分片有自己的日志和容量(总容量平均分配)
+ *
+ * 磁盘缓存key为MD5的十六进制字符串,按第一个字符分片,分布均匀且同一key总在同一分片
+ */
+public class ShardedDiskCache implements Closeable {
+
+    private final File mDirectory;
+    private final DiskLruCache[] mShards;
+
+    private ShardedDiskCache(File directory, DiskLruCache[] shards) {
+        mDirectory = directory;
+        mShards = shards;
+    }
+
+    /**
+     * 在directory下创建shardCount个子目录,分别打开一个DiskLruCache
+     * 任意分片打开失败时关闭已打开的分片并抛出异常
+     * @param directory
+     * @param appVersion
+     * @param valueCount
+     * @param maxSize 所有分片的总容量
+     * @param shardCount
+     * @return
+     * @throws IOException
+     */
+    public static ShardedDiskCache open(File directory, int appVersion, int valueCount,
+                                        long maxSize, int shardCount) throws IOException {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount <= 0");
+        }
+        DiskLruCache[] shards = new DiskLruCache[shardCount];
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                File shardDirectory = new File(directory, String.valueOf(i));
+                shards[i] = DiskLruCache.open(shardDirectory, appVersion, valueCount,
+                        Math.max(1, maxSize / shardCount));
+            }
+        } catch (IOException e) {
+            for (DiskLruCache shard : shards) {
+                closeQuietly(shard);
+            }
+            throw e;
+        }
+        return new ShardedDiskCache(directory, shards);
+    }
+
+    /**
+     * key所在的分片
+     * @param key
+     * @return
+     */
+    private DiskLruCache getShard(String key) {
+        return mShards[getShardIndex(key, mShards.length)];
+    }
+
+    static int getShardIndex(String key, int shardCount) {
+        int digit = key.isEmpty() ? -1 : Character.digit(key.charAt(0), 16);
+        if (digit < 0) {
+            //不是十六进制的key(如MD5不可用时的hashCode)按hashCode分片
+            digit = key.hashCode() & 0x7fffffff;
+        }
+        return digit % shardCount;
+    }
+
+    public DiskLruCache.Snapshot get(String key) throws IOException {
+        return getShard(key).get(key);
+    }
+
+    public DiskLruCache.Editor edit(String key) throws IOException {
+        return getShard(key).edit(key);
+    }
+
+    public boolean remove(String key) throws IOException {
+        return getShard(key).remove(key);
+    }
+
+    /**
+     * key所在分片的目录,正在编辑的文件也在这里
+     * @param key
+     * @return
+     */
+    public File getDirectory(String key) {
+        return getShard(key).getDirectory();
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public int getShardCount() {
+        return mShards.length;
+    }
+
+    /**
+     * 所有分片已使用的字节数
+     * @return
+     */
+    public long size() {
+        long size = 0;
+        for (DiskLruCache shard : mShards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    public long getMaxSize() {
+        long maxSize = 0;
+        for (DiskLruCache shard : mShards) {
+            maxSize += shard.getMaxSize();
+        }
+        return maxSize;
+    }
+
+    /**
+     * 修改总容量,平均分配给各分片
+     * @param maxSize
+     */
+    public void setMaxSize(long maxSize) {
+        for (DiskLruCache shard : mShards) {
+            shard.setMaxSize(Math.max(1, maxSize / mShards.length));
+        }
+    }
+
+    public boolean isClosed() {
+        return mShards[0].isClosed();
+    }
+
+    /**
+     * 依次刷新各分片的日志,已关闭的分片跳过
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        for (DiskLruCache shard : mShards) {
+            if (!shard.isClosed()) {
+                shard.flush();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (DiskLruCache shard : mShards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 关闭并删除所有分片的缓存文件
+     * @throws IOException
+     */
+    public void delete() throws IOException {
+        for (DiskLruCache shard : mShards) {
+            shard.delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            //忽略
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 超大图片的分块解码,通过ImageLoader.openTiledImage打开
+ *
+ * 整张图片按当前缩放对应的采样率(2的幂)划分成TILE_SIZE x TILE_SIZE的块,只解码可见区域内的块,
+ * 无论原图多大,内存占用只与屏幕大小有关
+ *      数据直接来自磁盘缓存文件的文件描述符,打开期间一直持有该条目的Snapshot
+ *      解码好的块以(key,采样率,列,行)为key放入ImageLoader的内存缓存,与普通图片共享容量和淘汰策略
+ *      BitmapRegionDecoder的解码方法是同步的,一个实例同时只能解码一块,
+ *      这里最多创建maxDecoders个实例,多个块可以并行解码;解码器都在使用时,块任务登记后让出磁盘线程,
+ *      有解码器归还时再重新提交,不会阻塞线程池
+ * 所有公开方法都在主线程调用,回调也在主线程
+ */
+public class TiledImage {
+
+    private static final String TAG = "TiledImage";
+
+    /**
+     * 每块解码后的边长(像素)
+     */
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * 打开结果的回调
+     */
+    public interface OpenListener {
+        void onOpened(TiledImage image);
+
+        void onFailed(String uri);
+    }
+
+    /**
+     * 块解码完成的回调
+     */
+    public interface TileListener {
+        /**
+         * @param tile 持有bitmap的一个引用,不再绘制时需调用Tile.release
+         */
+        void onTileLoaded(Tile tile);
+    }
+
+    /**
+     * 解码好的一块
+     */
+    public class Tile {
+        public final int sampleSize;
+        public final int column;
+        public final int row;
+
+        /**
+         * 在原图中的区域
+         */
+        public final Rect region;
+        public final Bitmap bitmap;
+
+        private boolean mReleased;
+
+        Tile(int sampleSize, int column, int row, Rect region, Bitmap bitmap) {
+            this.sampleSize = sampleSize;
+            this.column = column;
+            this.row = row;
+            this.region = region;
+            this.bitmap = bitmap;
+        }
+
+        /**
+         * 释放对bitmap的引用,之后bitmap可能被复用,不能再绘制
+         */
+        public void release() {
+            if (!mReleased) {
+                mReleased = true;
+                mLoader.releaseBitmap(bitmap);
+            }
+        }
+    }
+
+    private final ImageLoader mLoader;
+    private final String mKey;
+    private final DiskLruCache.Snapshot mSnapshot;
+    private final FileDescriptor mFileDescriptor;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mMaxDecoders;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 空闲的解码器,已创建的解码器数量,以及等待解码器的块任务,都由mDecoders的锁保护
+     */
+    private final List<BitmapRegionDecoder> mDecoders = new ArrayList<BitmapRegionDecoder>();
+    private int mDecoderCount;
+    private final List<TileTask> mWaitingTasks = new ArrayList<TileTask>();
+
+    /**
+     * 当前需要的块,每次requestTiles时整体替换;已不需要的块在开始解码前跳过
+     */
+    private volatile Set<String> mWantedTiles = Collections.emptySet();
+
+    /**
+     * 正在解码的块,只在主线程访问
+     */
+    private final Set<String> mLoadingTiles = new HashSet<String>();
+
+    private volatile boolean mRecycled;
+
+    private TiledImage(ImageLoader loader, String key, DiskLruCache.Snapshot snapshot,
+                       FileDescriptor fileDescriptor, BitmapRegionDecoder decoder, int maxDecoders) {
+        mLoader = loader;
+        mKey = key;
+        mSnapshot = snapshot;
+        mFileDescriptor = fileDescriptor;
+        mWidth = decoder.getWidth();
+        mHeight = decoder.getHeight();
+        mMaxDecoders = Math.max(1, maxDecoders);
+        mDecoders.add(decoder);
+        mDecoderCount = 1;
+    }
+
+    /**
+     * 从磁盘缓存条目创建,成功后由TiledImage负责关闭snapshot
+     * @param loader
+     * @param key 磁盘缓存key
+     * @param snapshot
+     * @param imageIndex 图片数据在条目中的索引
+     * @param maxDecoders 最多同时解码的块数
+     * @return
+     * @throws IOException 图片格式不支持分块解码
+     */
+    static TiledImage open(ImageLoader loader, String key, DiskLruCache.Snapshot snapshot,
+                           int imageIndex, int maxDecoders) throws IOException {
+        FileInputStream in = (FileInputStream) snapshot.getInputStream(imageIndex);
+        FileDescriptor fd = in.getFD();
+        //isShareable为true时可以直接映射文件,不把整个文件复制到内存;为此需要一直持有Snapshot
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(fd, true);
+        if (decoder == null) {
+            throw new IOException("can not create BitmapRegionDecoder for " + key);
+        }
+        return new TiledImage(loader, key, snapshot, fd, decoder, maxDecoders);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * 缩放比例对应的采样率:不大于1/scale的最大的2的幂
+     * @param scale 显示大小与原图大小之比
+     * @return
+     */
+    public static int getSampleSize(float scale) {
+        int sampleSize = 1;
+        if (scale <= 0) {
+            return sampleSize;
+        }
+        while (sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 请求可见区域内的块
+     * 已在内存缓存中的块立即回调,其余的在线程池中解码后回调;
+     * 之前请求但已不在可见区域的块,尚未开始解码的不再解码
+     * @param visibleRegion 原图坐标系中的可见区域
+     * @param scale 当前缩放比例
+     * @param listener
+     */
+    public void requestTiles(Rect visibleRegion, float scale, TileListener listener) {
+        if (mRecycled) {
+            return;
+        }
+        int sampleSize = getSampleSize(scale);
+        int tileSpan = TILE_SIZE * sampleSize;
+        int firstColumn = Math.max(0, visibleRegion.left / tileSpan);
+        int firstRow = Math.max(0, visibleRegion.top / tileSpan);
+        int lastColumn = Math.min((mWidth - 1) / tileSpan, (visibleRegion.right - 1) / tileSpan);
+        int lastRow = Math.min((mHeight - 1) / tileSpan, (visibleRegion.bottom - 1) / tileSpan);
+
+        Set<String> wanted = new HashSet<String>();
+        List<int[]> missing = new ArrayList<int[]>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                String tileKey = getTileKey(sampleSize, column, row);
+                wanted.add(tileKey);
+                Bitmap bitmap = mLoader.getAndAcquireBitmapFromMemCache(tileKey);
+                if (bitmap != null) {
+                    listener.onTileLoaded(new Tile(sampleSize, column, row,
+                            getTileRegion(sampleSize, column, row), bitmap));
+                } else if (!mLoadingTiles.contains(tileKey)) {
+                    missing.add(new int[]{column, row});
+                }
+            }
+        }
+        mWantedTiles = wanted;
+
+        for (int[] tile : missing) {
+            String tileKey = getTileKey(sampleSize, tile[0], tile[1]);
+            mLoadingTiles.add(tileKey);
+            mLoader.executeDiskTask(new TileTask(tileKey, sampleSize, tile[0], tile[1], listener));
+        }
+    }
+
+    /**
+     * 关闭,之后不再解码新的块;已经回调出去的块仍需各自release
+     */
+    public void recycle() {
+        if (mRecycled) {
+            return;
+        }
+        mRecycled = true;
+        mWantedTiles = Collections.emptySet();
+        synchronized (mDecoders) {
+            for (BitmapRegionDecoder decoder : mDecoders) {
+                decoder.recycle();
+                mDecoderCount--;
+            }
+            mDecoders.clear();
+            mWaitingTasks.clear();
+            closeSnapshotIfIdle();
+        }
+    }
+
+    public boolean isRecycled() {
+        return mRecycled;
+    }
+
+    /**
+     * 内存缓存key:磁盘缓存key + "_t" + 采样率 + 列 + 行,与普通图片的key不会冲突
+     */
+    private String getTileKey(int sampleSize, int column, int row) {
+        return mKey + "_t" + sampleSize + "_" + column + "_" + row;
+    }
+
+    private Rect getTileRegion(int sampleSize, int column, int row) {
+        int tileSpan = TILE_SIZE * sampleSize;
+        int left = column * tileSpan;
+        int top = row * tileSpan;
+        return new Rect(left, top, Math.min(mWidth, left + tileSpan), Math.min(mHeight, top + tileSpan));
+    }
+
+    /**
+     * 取一个空闲的解码器,都在使用且未达到上限时新建
+     * 已达到上限时不等待,登记task,有解码器归还时重新提交
+     * @param task 当前的块任务
+     * @return 已关闭或已登记等待时返回null
+     */
+    private BitmapRegionDecoder obtainDecoder(TileTask task) throws IOException {
+        synchronized (mDecoders) {
+            if (mRecycled) {
+                return null;
+            }
+            if (!mDecoders.isEmpty()) {
+                return mDecoders.remove(mDecoders.size() - 1);
+            }
+            if (mDecoderCount >= mMaxDecoders) {
+                mWaitingTasks.add(task);
+                return null;
+            }
+            mDecoderCount++;
+        }
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(mFileDescriptor, true);
+        } finally {
+            if (decoder == null) {
+                //名额空出,让一个等待的任务自己去创建
+                TileTask waiting;
+                synchronized (mDecoders) {
+                    mDecoderCount--;
+                    waiting = pollWaitingTask();
+                }
+                if (waiting != null) {
+                    mLoader.executeDiskTask(waiting);
+                }
+            }
+        }
+        if (decoder == null) {
+            throw new IOException("can not create BitmapRegionDecoder for " + mKey);
+        }
+        return decoder;
+    }
+
+    private void recycleDecoder(BitmapRegionDecoder decoder) {
+        TileTask waiting = null;
+        synchronized (mDecoders) {
+            if (mRecycled) {
+                decoder.recycle();
+                mDecoderCount--;
+                closeSnapshotIfIdle();
+            } else {
+                mDecoders.add(decoder);
+                waiting = pollWaitingTask();
+            }
+        }
+        if (waiting != null) {
+            mLoader.executeDiskTask(waiting);
+        }
+    }
+
+    /**
+     * 在mDecoders的锁内调用,按登记顺序取出一个等待的任务
+     * @return 没有时返回null
+     */
+    private TileTask pollWaitingTask() {
+        return mWaitingTasks.isEmpty() ? null : mWaitingTasks.remove(0);
+    }
+
+    /**
+     * 所有解码器都已释放后关闭Snapshot,文件描述符随之关闭
+     */
+    private void closeSnapshotIfIdle() {
+        if (mDecoderCount == 0) {
+            mSnapshot.close();
+        }
+    }
+
+    /**
+     * 解码一块,在ImageLoader的磁盘线程池中执行
+     */
+    private class TileTask extends PriorityTask {
+        private final String mTileKey;
+        private final int mSampleSize;
+        private final int mColumn;
+        private final int mRow;
+        private final TileListener mListener;
+
+        TileTask(String tileKey, int sampleSize, int column, int row, TileListener listener) {
+            super(PriorityTask.PRIORITY_NORMAL);
+            mTileKey = tileKey;
+            mSampleSize = sampleSize;
+            mColumn = column;
+            mRow = row;
+            mListener = listener;
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap = null;
+            if (!mRecycled && mWantedTiles.contains(mTileKey)) {
+                bitmap = mLoader.getAndAcquireBitmapFromMemCache(mTileKey);
+                if (bitmap == null) {
+                    BitmapRegionDecoder decoder = null;
+                    boolean failed = false;
+                    try {
+                        decoder = obtainDecoder(this);
+                    } catch (IOException e) {
+                        Log.w(TAG, "create decoder failed:" + e);
+                        failed = true;
+                    }
+                    if (decoder == null && !failed && !mRecycled) {
+                        //已登记等待解码器,重新提交时再回调
+                        return;
+                    }
+                    if (decoder != null) {
+                        bitmap = decode(decoder);
+                    }
+                }
+            }
+            final Bitmap result = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mLoadingTiles.remove(mTileKey);
+                    if (result == null) {
+                        return;
+                    }
+                    if (mRecycled || !mWantedTiles.contains(mTileKey)) {
+                        mLoader.releaseBitmap(result);
+                        return;
+                    }
+                    mListener.onTileLoaded(new Tile(mSampleSize, mColumn, mRow,
+                            getTileRegion(mSampleSize, mColumn, mRow), result));
+                }
+            });
+        }
+
+        private Bitmap decode(BitmapRegionDecoder decoder) {
+            Bitmap bitmap;
+            try {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = mSampleSize;
+                bitmap = decoder.decodeRegion(getTileRegion(mSampleSize, mColumn, mRow), options);
+            } finally {
+                recycleDecoder(decoder);
+            }
+            if (bitmap != null) {
+                mLoader.addAndAcquireBitmapToMemoryCache(mTileKey, bitmap);
+            }
+            return bitmap;
+        }
+    }
+}
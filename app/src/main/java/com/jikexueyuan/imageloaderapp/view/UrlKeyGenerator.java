@@ -0,0 +1,175 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 将url转成缓存key
+ * 由于url中可能有特殊字符,采用MD5转义成32位小写十六进制字符串
+ *
+ * 每次绑定都会多次计算key,且有一次在主线程,所以这里尽量减少分配:
+ *      每个线程复用一个MessageDigest,不再每次getInstance
+ *      查表完成十六进制编码
+ *      最近用过的url直接从缓存中取出key,不再重复计算
+ *
+ * 设置了KeyStrategy时先规范化url再计算,并统计规范化的效果
+ */
+public class UrlKeyGenerator {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 每个线程一个MessageDigest,MessageDigest本身不是线程安全的
+     */
+    private static final ThreadLocal<MessageDigest> sDigest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return newDigest();
+        }
+    };
+
+    /**
+     * url到key的缓存
+     */
+    private final ClockCache<String, String> mKeys;
+
+    /**
+     * url规范化规则,为null时直接使用原始url
+     */
+    private final KeyStrategy mKeyStrategy;
+
+    /**
+     * key到最近得到它的原始url,用于统计规范化后与其他url共用的key
+     */
+    private final ClockCache<String, String> mUrlsByKey;
+
+    /**
+     * 规范化后url发生变化的次数
+     */
+    private final AtomicLong mRewrittenCount = new AtomicLong();
+
+    /**
+     * 得到的key之前由另一个原始url得到过的次数,不做规范化时这些请求都会成为新的未命中
+     */
+    private final AtomicLong mMergedCount = new AtomicLong();
+
+    /**
+     * @param maxEntries 缓存的url数量
+     */
+    public UrlKeyGenerator(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * @param maxEntries 缓存的url数量
+     * @param keyStrategy url规范化规则,可以为null
+     */
+    public UrlKeyGenerator(int maxEntries, KeyStrategy keyStrategy) {
+        mKeys = new ClockCache<String, String>(maxEntries);
+        mKeyStrategy = keyStrategy;
+        mUrlsByKey = keyStrategy != null ? new ClockCache<String, String>(maxEntries) : null;
+    }
+
+    /**
+     * 获取url对应的key,最近计算过的直接返回
+     * @param url
+     * @return
+     */
+    public String getKey(String url) {
+        String key = mKeys.get(url);
+        if (key == null) {
+            key = mKeyStrategy != null ? getCanonicalKey(url) : hashKeyForUrl(url);
+            mKeys.put(url, key);
+        }
+        return key;
+    }
+
+    private String getCanonicalKey(String url) {
+        String cacheUrl = mKeyStrategy.getCacheUrl(url);
+        if (cacheUrl == null) {
+            cacheUrl = url;
+        }
+        String key = hashKeyForUrl(cacheUrl);
+        if (!cacheUrl.equals(url)) {
+            mRewrittenCount.incrementAndGet();
+        }
+        String previousUrl = mUrlsByKey.put(key, url);
+        if (previousUrl != null && !previousUrl.equals(url)) {
+            mMergedCount.incrementAndGet();
+        }
+        return key;
+    }
+
+    public long getRewrittenCount() {
+        return mRewrittenCount.get();
+    }
+
+    public long getMergedCount() {
+        return mMergedCount.get();
+    }
+
+    /**
+     * 计算url的MD5,不经过缓存
+     * @param url
+     * @return
+     */
+    public static String hashKeyForUrl(String url) {
+        MessageDigest digest = sDigest.get();
+        if (digest == null) {
+            return String.valueOf(url.hashCode());
+        }
+        digest.reset();
+        return toHexString(digest.digest(url.getBytes(UTF_8)));
+    }
+
+    /**
+     * 旧版本生成key的方式,仅用于迁移旧的磁盘缓存
+     * 旧版本把每个字节乘以0xFF而不是与0xFF,得到的并不是标准的十六进制
+     * @param url
+     * @return
+     */
+    public static String legacyHashKeyForUrl(String url) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(url.getBytes());
+            byte[] bytes = digest.digest();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < bytes.length; i++) {
+                String hex = Integer.toHexString(0xFF * bytes[i]);
+                if (hex.length() == 1) {
+                    sb.append('0');
+                }
+                sb.append(hex);
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(url.hashCode());
+        }
+    }
+
+    /**
+     * 新建一个MD5的MessageDigest,用于计算图片数据的MD5
+     * @return 不支持MD5时返回null
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    public static String toHexString(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xFF;
+            chars[i * 2] = HEX_DIGITS[v >>> 4];
+            chars[i * 2 + 1] = HEX_DIGITS[v & 0x0F];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,74 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CanonicalKeyStrategyTest {
+
+    @Test
+    public void ignoredParameters_areRemoved() {
+        KeyStrategy strategy = new CanonicalKeyStrategy.Builder()
+                .ignoreParameters("token", "t")
+                .build();
+        assertEquals("http://img.example.com/a.jpg?w=100",
+                strategy.getCacheUrl("http://img.example.com/a.jpg?token=abc&w=100&t=123"));
+        assertEquals("http://img.example.com/a.jpg",
+                strategy.getCacheUrl("http://img.example.com/a.jpg?token=abc#top"));
+    }
+
+    @Test
+    public void sortParameters_keepsOrderOfSameName() {
+        KeyStrategy strategy = new CanonicalKeyStrategy.Builder()
+                .sortParameters()
+                .build();
+        assertEquals("http://img.example.com/a.jpg?a=1&b=2&b=1",
+                strategy.getCacheUrl("http://img.example.com/a.jpg?b=2&a=1&b=1"));
+    }
+
+    @Test
+    public void hostAlias_mapsHostOnly() {
+        KeyStrategy strategy = new CanonicalKeyStrategy.Builder()
+                .hostAlias("cdn2.example.com", "cdn1.example.com")
+                .ignoreAllParameters()
+                .build();
+        assertEquals("https://user@cdn1.example.com:8443/a/b.png",
+                strategy.getCacheUrl("https://user@CDN2.example.com:8443/a/b.png?sig=xyz"));
+        assertEquals("https://cdn1.example.com",
+                strategy.getCacheUrl("https://cdn2.example.com"));
+    }
+
+    @Test
+    public void hostAlias_ipv6Literal() {
+        KeyStrategy strategy = new CanonicalKeyStrategy.Builder()
+                .hostAlias("[::2]", "[::1]")
+                .ignoreAllParameters()
+                .build();
+        assertEquals("http://[::1]:8080/x",
+                strategy.getCacheUrl("http://[::1]:8080/x?sig=1"));
+        assertEquals("http://[::1]:8080/x",
+                strategy.getCacheUrl("http://[::2]:8080/x"));
+        assertEquals("http://[fe80::1]/x",
+                strategy.getCacheUrl("http://[FE80::1]/x"));
+        assertEquals("http://user@[::1]/x",
+                strategy.getCacheUrl("http://user@[::2]/x"));
+    }
+
+    @Test
+    public void keyGenerator_countsMergedUrls() {
+        KeyStrategy strategy = new CanonicalKeyStrategy.Builder()
+                .ignoreParameters("token")
+                .build();
+        UrlKeyGenerator generator = new UrlKeyGenerator(16, strategy);
+        String first = generator.getKey("http://img.example.com/a.jpg?token=1");
+        String second = generator.getKey("http://img.example.com/a.jpg?token=2");
+        assertEquals(first, second);
+        assertEquals(UrlKeyGenerator.hashKeyForUrl("http://img.example.com/a.jpg"), first);
+        assertEquals(2, generator.getRewrittenCount());
+        assertEquals(1, generator.getMergedCount());
+
+        //同一url再次计算直接取缓存,不重复统计
+        generator.getKey("http://img.example.com/a.jpg?token=2");
+        assertEquals(1, generator.getMergedCount());
+    }
+}
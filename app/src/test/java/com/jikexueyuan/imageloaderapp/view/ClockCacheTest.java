@@ -0,0 +1,138 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ClockCacheTest {
+
+    /**
+     * 以字符串长度作为大小,并记录被移除的条目
+     */
+    private static class TestCache extends ClockCache<String, String> {
+        final List<String> evicted = new ArrayList<String>();
+        final List<String> replaced = new ArrayList<String>();
+
+        TestCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected int sizeOf(String key, String value) {
+            return value.length();
+        }
+
+        @Override
+        protected synchronized void entryRemoved(boolean evicted, String key, String oldValue, String newValue) {
+            (evicted ? this.evicted : this.replaced).add(key);
+        }
+    }
+
+    @Test
+    public void put_evictsBySize() {
+        TestCache cache = new TestCache(10);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.put("c", "cccc");
+
+        assertEquals(8, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertEquals("a", cache.evicted.get(0));
+        assertNull(cache.get("a"));
+        assertEquals("cccc", cache.get("c"));
+    }
+
+    @Test
+    public void put_replaceNotifiesOldValue() {
+        TestCache cache = new TestCache(10);
+        cache.put("a", "aa");
+        assertEquals("aa", cache.put("a", "aaa"));
+
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.replaced.size());
+        assertTrue(cache.evicted.isEmpty());
+    }
+
+    @Test
+    public void get_countsHitsAndMisses() {
+        TestCache cache = new TestCache(10);
+        cache.put("a", "a");
+        cache.get("a");
+        cache.get("b");
+
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void hotEntriesSurviveScan() {
+        TestCache cache = new TestCache(20);
+        for (int i = 0; i < 10; i++) {
+            cache.put("hot" + i, "x");
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 10; i++) {
+                cache.get("hot" + i);
+            }
+        }
+        //一次性访问的条目数远大于容量
+        for (int i = 0; i < 25; i++) {
+            cache.put("scan" + i, "x");
+        }
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(cache.get("hot" + i));
+        }
+    }
+
+    @Test
+    public void evictAll_empties() {
+        TestCache cache = new TestCache(10);
+        cache.put("a", "a");
+        cache.put("b", "b");
+        cache.evictAll();
+
+        assertEquals(0, cache.size());
+        assertTrue(cache.snapshot().isEmpty());
+        assertEquals(2, cache.evicted.size());
+    }
+
+    @Test
+    public void concurrentAccess_keepsSizeConsistent() throws Exception {
+        final TestCache cache = new TestCache(100);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 20000; i++) {
+                        String key = "k" + random.nextInt(300);
+                        if (cache.get(key) == null) {
+                            cache.put(key, key);
+                        }
+                        if (random.nextInt(50) == 0) {
+                            cache.remove(key);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int size = 0;
+        for (Map.Entry<String, String> entry : cache.snapshot().entrySet()) {
+            size += entry.getValue().length();
+        }
+        assertEquals(size, cache.size());
+        assertTrue(cache.size() <= 100);
+    }
+}
@@ -0,0 +1,57 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DecodeOptionsTest {
+
+    @Test
+    public void original_onlySamplesByPowerOfTwo() {
+        DecodeSpec spec = DecodeOptions.ORIGINAL.resolve(1000, 800, true, 300, 300);
+        assertEquals(2, spec.inSampleSize);
+        assertEquals(Bitmap.Config.ARGB_8888, spec.config);
+        assertFalse(spec.isScaled());
+        assertEquals(500, spec.width);
+        assertEquals(400, spec.height);
+        assertEquals("2", spec.getKeySuffix());
+    }
+
+    @Test
+    public void auto_scalesToCoverRequestedSize() {
+        DecodeSpec spec = DecodeOptions.AUTO.resolve(1000, 800, true, 300, 300);
+        assertEquals(2, spec.inSampleSize);
+        assertEquals(Bitmap.Config.RGB_565, spec.config);
+        assertTrue(spec.isScaled());
+        //高度是较短的一边,缩放到刚好等于请求高度,宽度仍大于请求宽度
+        assertEquals(375, spec.width);
+        assertEquals(300, spec.height);
+        assertEquals("2_375x300_565", spec.getKeySuffix());
+    }
+
+    @Test
+    public void auto_keepsAlphaForNonOpaqueImages() {
+        DecodeSpec spec = DecodeOptions.AUTO.resolve(1000, 800, false, 300, 300);
+        assertEquals(Bitmap.Config.ARGB_8888, spec.config);
+        assertTrue(spec.isScaled());
+    }
+
+    @Test
+    public void auto_doesNotScaleWithoutRequestedSize() {
+        DecodeSpec spec = DecodeOptions.AUTO.resolve(1000, 800, true, 0, 0);
+        assertEquals(1, spec.inSampleSize);
+        assertFalse(spec.isScaled());
+        assertEquals(1000, spec.width);
+    }
+
+    @Test
+    public void auto_doesNotUpscale() {
+        DecodeSpec spec = DecodeOptions.AUTO.resolve(200, 100, true, 300, 300);
+        assertEquals(1, spec.inSampleSize);
+        assertFalse(spec.isScaled());
+        assertEquals(200, spec.width);
+        assertEquals(100, spec.height);
+    }
+}
@@ -0,0 +1,51 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DiskCacheMetadataTest {
+
+    @Test
+    public void alias_roundTrip() {
+        DiskCacheMetadata metadata = new DiskCacheMetadata();
+        metadata.width = 640;
+        metadata.height = 480;
+        metadata.etag = "\"abc\"";
+        metadata.contentHash = "0123456789abcdef0123456789abcdef";
+        metadata.dataKey = "fedcba9876543210fedcba9876543210";
+
+        DiskCacheMetadata parsed = DiskCacheMetadata.parse(metadata.toString());
+        assertTrue(parsed.isAlias());
+        assertEquals(metadata.contentHash, parsed.contentHash);
+        assertEquals(metadata.dataKey, parsed.dataKey);
+        assertEquals("\"abc\"", parsed.etag);
+        assertEquals(640, parsed.width);
+    }
+
+    @Test
+    public void legacyEntry_isNotAlias() {
+        DiskCacheMetadata parsed = DiskCacheMetadata.parse("width=10\nheight=20\n");
+        assertFalse(parsed.isAlias());
+        assertNull(parsed.contentHash);
+        assertTrue(parsed.hasSize());
+    }
+
+    @Test
+    public void copyContentFrom_keepsValidators() {
+        DiskCacheMetadata data = new DiskCacheMetadata();
+        data.width = 100;
+        data.height = 50;
+        data.mimeType = "image/jpeg";
+        data.contentHash = "0123456789abcdef0123456789abcdef";
+        data.etag = "\"data\"";
+
+        DiskCacheMetadata alias = new DiskCacheMetadata();
+        alias.etag = "\"alias\"";
+        alias.copyContentFrom(data);
+        assertEquals(100, alias.width);
+        assertEquals("image/jpeg", alias.mimeType);
+        assertEquals(data.contentHash, alias.contentHash);
+        assertEquals("\"alias\"", alias.etag);
+    }
+}
@@ -0,0 +1,180 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class EncodedMemoryCacheTest {
+
+    private static final int KB = 1024;
+
+    private final ByteArrayPool mPool = new ByteArrayPool(64 * KB);
+
+    private static ByteBuffer data(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @Test
+    public void put_roundsSlabsUpToPowerOfTwo() {
+        EncodedMemoryCache cache = new EncodedMemoryCache(256 * KB);
+        cache.put("small", data(1, 1));
+        assertEquals(4 * KB, cache.size());
+
+        cache.put("exact", data(8 * KB, 2));
+        assertEquals(12 * KB, cache.size());
+
+        cache.put("over", data(8 * KB + 1, 3));
+        assertEquals(28 * KB, cache.size());
+    }
+
+    @Test
+    public void put_rejectsEmptyAndTooLargeEntries() {
+        EncodedMemoryCache cache = new EncodedMemoryCache(64 * KB);
+        assertEquals(8 * KB, cache.maxEntrySize());
+
+        assertFalse(cache.put("empty", data(0, 0)));
+        assertFalse(cache.put("large", data(8 * KB + 1, 1)));
+        assertTrue(cache.put("max", data(8 * KB, 1)));
+        assertEquals(8 * KB, cache.size());
+    }
+
+    @Test
+    public void put_doesNotMoveSourcePosition() {
+        EncodedMemoryCache cache = new EncodedMemoryCache(64 * KB);
+        ByteBuffer source = data(100, 7);
+        source.position(10);
+        cache.put("a", source);
+
+        assertEquals(10, source.position());
+        assertEquals(90, cache.get("a", mPool).remaining());
+    }
+
+    @Test
+    public void remove_recyclesSlabForSameSizeClass() {
+        EncodedMemoryCache cache = new EncodedMemoryCache(64 * KB);
+        cache.put("a", data(5 * KB, 1));
+        cache.remove("a");
+        assertFalse(cache.contains("a"));
+        //空闲块仍计入已分配大小
+        assertEquals(8 * KB, cache.size());
+
+        cache.put("b", data(6 * KB, 2));
+        assertEquals(8 * KB, cache.size());
+        assertEquals(0, cache.evictionCount());
+    }
+
+    @Test
+    public void put_releasesFreeSlabsOfOtherSizesBeforeEvicting() {
+        EncodedMemoryCache cache = new EncodedMemoryCache(64 * KB);
+        for (int i = 0; i < 7; i++) {
+            cache.put("big" + i, data(8 * KB, i));
+        }
+        cache.remove("big0");
+        assertEquals(56 * KB, cache.size());
+
+        cache.put("a", data(KB, 1));
+        cache.put("b", data(KB, 2));
+        assertEquals(64 * KB, cache.size());
+
+        //没有4K的空闲块且容量已满,先丢弃8K的空闲块,不淘汰条目
+        cache.put("c", data(KB, 3));
+        assertEquals(60 * KB, cache.size());
+        assertEquals(0, cache.evictionCount());
+        for (int i = 1; i < 7; i++) {
+            assertTrue(cache.contains("big" + i));
+        }
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedWhenFull() {
+        EncodedMemoryCache cache = new EncodedMemoryCache(16 * KB);
+        cache.put("a", data(KB, 1));
+        cache.put("b", data(KB, 2));
+        cache.put("c", data(KB, 3));
+        cache.put("d", data(KB, 4));
+        //访问a之后最久未使用的是b
+        assertNotNull(cache.get("a", mPool));
+
+        cache.put("e", data(KB, 5));
+        assertEquals(1, cache.evictionCount());
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("a"));
+        assertTrue(cache.contains("e"));
+        //淘汰的块直接给了新条目
+        assertEquals(16 * KB, cache.size());
+    }
+
+    @Test
+    public void get_countsHitsAndMisses() {
+        EncodedMemoryCache cache = new EncodedMemoryCache(16 * KB);
+        cache.put("a", data(KB, 1));
+        assertNotNull(cache.get("a", mPool));
+        assertNull(cache.get("b", mPool));
+        assertNull(cache.get("c", mPool));
+
+        assertEquals(1, cache.hitCount());
+        assertEquals(2, cache.missCount());
+    }
+
+    @Test
+    public void get_copiesOutOfSlab() {
+        EncodedMemoryCache cache = new EncodedMemoryCache(16 * KB);
+        cache.put("a", data(KB, 1));
+        ByteBuffer copy = cache.get("a", mPool);
+        assertEquals(0, copy.position());
+        assertEquals(KB, copy.limit());
+
+        //a的块被b复用后,之前取出的数据不受影响
+        cache.remove("a");
+        cache.put("b", data(KB, 2));
+        assertEquals(4 * KB, cache.size());
+        for (int i = 0; i < KB; i++) {
+            assertEquals(1, copy.get(i));
+        }
+        assertEquals(2, cache.get("b", mPool).get(0));
+    }
+
+    @Test
+    public void resizeToZero_releasesEverything() {
+        EncodedMemoryCache cache = new EncodedMemoryCache(16 * KB);
+        cache.put("a", data(KB, 1));
+        cache.put("b", data(KB, 2));
+        cache.remove("b");
+
+        cache.resize(0);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.maxSize());
+        assertFalse(cache.contains("a"));
+        assertEquals(1, cache.evictionCount());
+        //容量为0时不再缓存
+        assertFalse(cache.put("c", data(1, 3)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void resize_smallerTrimsFreeSlabsFirst() {
+        EncodedMemoryCache cache = new EncodedMemoryCache(16 * KB);
+        cache.put("a", data(KB, 1));
+        cache.put("b", data(KB, 2));
+        cache.put("c", data(KB, 3));
+        cache.remove("c");
+        assertEquals(12 * KB, cache.size());
+
+        cache.resize(8 * KB);
+        assertEquals(8 * KB, cache.size());
+        assertEquals(0, cache.evictionCount());
+        assertTrue(cache.contains("a"));
+        assertTrue(cache.contains("b"));
+
+        cache.resize(4 * KB);
+        assertEquals(4 * KB, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertFalse(cache.contains("a"));
+        assertTrue(cache.contains("b"));
+    }
+}
@@ -0,0 +1,151 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 使用进程内的本地HTTP服务测试HttpUrlConnectionFetcher
+ */
+public class HttpUrlConnectionFetcherTest {
+
+    private static final byte[] IMAGE = "not really an image".getBytes();
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer mServer;
+    private String mUrl;
+
+    /**
+     * 每个请求的客户端端口,端口相同说明连接被复用
+     */
+    private final List<Integer> mClientPorts = new ArrayList<Integer>();
+    private final List<String> mIfNoneMatch = new ArrayList<String>();
+    private volatile long mDelay;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/image", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (mClientPorts) {
+                    mClientPorts.add(exchange.getRemoteAddress().getPort());
+                    mIfNoneMatch.add(exchange.getRequestHeaders().getFirst("If-None-Match"));
+                }
+                if (mDelay > 0) {
+                    try {
+                        Thread.sleep(mDelay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, IMAGE.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(IMAGE);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/image";
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void fetch_returnsBodyAndValidators() throws Exception {
+        long before = System.currentTimeMillis();
+        FetchResponse response = new HttpUrlConnectionFetcher().fetch(mUrl, null);
+        try {
+            assertTrue(response.isSuccessful());
+            assertArrayEquals(IMAGE, readAll(response.getBody()));
+            assertEquals(ETAG, response.getEtag());
+            assertTrue(response.getExpires() >= before + 60 * 1000);
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void fetch_sendsConditionalRequest() throws Exception {
+        DiskCacheMetadata cached = new DiskCacheMetadata();
+        cached.etag = ETAG;
+        FetchResponse response = new HttpUrlConnectionFetcher().fetch(mUrl, cached);
+        response.close();
+
+        assertTrue(response.isNotModified());
+        assertNull(response.getBody());
+        assertEquals(ETAG, mIfNoneMatch.get(0));
+    }
+
+    @Test
+    public void fetch_reusesConnection() throws Exception {
+        HttpUrlConnectionFetcher fetcher = new HttpUrlConnectionFetcher();
+        for (int i = 0; i < 3; i++) {
+            FetchResponse response = fetcher.fetch(mUrl, null);
+            readAll(response.getBody());
+            response.close();
+        }
+        assertEquals(3, mClientPorts.size());
+        assertEquals(mClientPorts.get(0), mClientPorts.get(1));
+        assertEquals(mClientPorts.get(0), mClientPorts.get(2));
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void fetch_timesOut() throws Exception {
+        mDelay = 1000;
+        new HttpUrlConnectionFetcher(1000, 100).fetch(mUrl, null);
+    }
+
+    @Test
+    public void metadata_roundTripsValidators() {
+        DiskCacheMetadata metadata = new DiskCacheMetadata();
+        metadata.width = 100;
+        metadata.height = 50;
+        metadata.etag = ETAG;
+        metadata.lastModified = "Wed, 21 Oct 2015 07:28:00 GMT";
+        metadata.expires = 1000;
+
+        DiskCacheMetadata parsed = DiskCacheMetadata.parse(metadata.toString());
+        assertEquals(100, parsed.width);
+        assertEquals(50, parsed.height);
+        assertEquals(ETAG, parsed.etag);
+        assertEquals(metadata.lastModified, parsed.lastModified);
+        assertTrue(parsed.isExpired(1000));
+        assertFalse(parsed.isExpired(999));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,134 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketIndex_isLinearBelowSixteen() {
+        for (int value = 0; value < 16; value++) {
+            assertEquals(value, LatencyHistogram.bucketIndex(value));
+            assertEquals(value, LatencyHistogram.bucketUpperBound(value));
+        }
+    }
+
+    @Test
+    public void bucketIndex_splitsEachPowerOfTwoIntoEightSubBuckets() {
+        //16~31每个子桶宽2
+        assertEquals(16, LatencyHistogram.bucketIndex(16));
+        assertEquals(16, LatencyHistogram.bucketIndex(17));
+        assertEquals(17, LatencyHistogram.bucketIndex(18));
+        assertEquals(23, LatencyHistogram.bucketIndex(31));
+        //32~63每个子桶宽4
+        assertEquals(24, LatencyHistogram.bucketIndex(32));
+        assertEquals(24, LatencyHistogram.bucketIndex(35));
+        assertEquals(25, LatencyHistogram.bucketIndex(36));
+        assertEquals(31, LatencyHistogram.bucketIndex(63));
+
+        assertEquals(17, LatencyHistogram.bucketUpperBound(16));
+        assertEquals(35, LatencyHistogram.bucketUpperBound(24));
+        assertEquals(103, LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(100)));
+        assertEquals(1023, LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(1000)));
+    }
+
+    @Test
+    public void bucketIndex_isContiguousAndWithinRelativeError() {
+        int previous = LatencyHistogram.bucketIndex(15);
+        for (long value = 16; value < (1L << 20); value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(index == previous || index == previous + 1);
+            long upperBound = LatencyHistogram.bucketUpperBound(index);
+            assertTrue(upperBound >= value);
+            //误差不超过12.5%
+            assertTrue((upperBound - value) * 8 < value);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void bucketIndex_clampsAboveTopExponent() {
+        int last = LatencyHistogram.bucketIndex((1L << 41) - 1);
+        assertEquals(last, LatencyHistogram.bucketIndex(1L << 41));
+        assertEquals(last, LatencyHistogram.bucketIndex(1L << 50));
+        assertEquals(last, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+        assertEquals((1L << 41) - 1, LatencyHistogram.bucketUpperBound(last));
+    }
+
+    @Test
+    public void summary_empty() {
+        LatencyHistogram.Summary summary = new LatencyHistogram().summary();
+        assertEquals(0, summary.count);
+        assertEquals(0, summary.mean);
+        assertEquals(0, summary.p50);
+        assertEquals(0, summary.p99);
+        assertEquals(0, summary.max);
+    }
+
+    @Test
+    public void summary_percentilesUseBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 50; i++) {
+            histogram.record(10);
+        }
+        for (int i = 0; i < 40; i++) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(5000);
+
+        LatencyHistogram.Summary summary = histogram.summary();
+        assertEquals(100, summary.count);
+        assertEquals((50 * 10 + 40 * 100 + 9 * 1000 + 5000) / 100, summary.mean);
+        assertEquals(10, summary.p50);
+        assertEquals(103, summary.p90);
+        assertEquals(1023, summary.p99);
+        assertEquals(5000, summary.max);
+    }
+
+    @Test
+    public void summary_percentileDoesNotExceedMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.record(1L << 50);
+
+        LatencyHistogram.Summary summary = histogram.summary();
+        assertEquals(103, summary.p50);
+        //最后一个桶的上界小于max,取上界
+        assertEquals((1L << 41) - 1, summary.p99);
+        assertEquals(1L << 50, summary.max);
+
+        //只有一个值时桶的上界103超过max,取max
+        histogram.reset();
+        histogram.record(100);
+        assertEquals(100, histogram.summary().p99);
+    }
+
+    @Test
+    public void record_convertsNanosAndClampsNegative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(2500000);
+        histogram.record(-5);
+
+        LatencyHistogram.Summary summary = histogram.summary();
+        assertEquals(2, histogram.getCount());
+        assertEquals(2500, summary.max);
+        assertEquals(0, summary.p50);
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.reset();
+
+        LatencyHistogram.Summary summary = histogram.summary();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, summary.count);
+        assertEquals(0, summary.max);
+        assertEquals(0, summary.p50);
+    }
+}
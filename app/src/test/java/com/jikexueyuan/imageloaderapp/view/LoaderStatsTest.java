@@ -0,0 +1,77 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LoaderStatsTest {
+
+    @Test
+    public void snapshot_copiesCounters() {
+        LoaderStats stats = new LoaderStats();
+        stats.recordHit(LoaderStats.TIER_MEMORY);
+        stats.recordHit(LoaderStats.TIER_MEMORY);
+        stats.recordHit(LoaderStats.TIER_MEMORY);
+        stats.recordMiss(LoaderStats.TIER_MEMORY);
+        stats.recordMiss(LoaderStats.TIER_DISK);
+        stats.recordBytes(LoaderStats.TIER_NETWORK, 1000);
+        stats.recordBytes(LoaderStats.TIER_NETWORK, 24);
+        stats.recordNotModified();
+        stats.recordDeduplicated();
+        stats.recordDeduplicated();
+        stats.decodeLatency().record(100);
+
+        LoaderStats.Snapshot snapshot = stats.snapshot();
+        assertEquals(3, snapshot.hits[LoaderStats.TIER_MEMORY]);
+        assertEquals(1, snapshot.misses[LoaderStats.TIER_MEMORY]);
+        assertEquals(1, snapshot.misses[LoaderStats.TIER_DISK]);
+        assertEquals(1024, snapshot.bytes[LoaderStats.TIER_NETWORK]);
+        assertEquals(1, snapshot.notModified);
+        assertEquals(2, snapshot.deduplicated);
+        assertEquals(1, snapshot.decodeLatency.count);
+        assertEquals(0, snapshot.downloadLatency.count);
+        assertEquals(0.75, snapshot.hitRatio(LoaderStats.TIER_MEMORY), 1e-9);
+        assertEquals(0, snapshot.hitRatio(LoaderStats.TIER_ENCODED), 1e-9);
+    }
+
+    @Test
+    public void snapshot_isNotAffectedByLaterRecords() {
+        LoaderStats stats = new LoaderStats();
+        stats.recordHit(LoaderStats.TIER_DISK);
+        LoaderStats.Snapshot snapshot = stats.snapshot();
+
+        stats.recordHit(LoaderStats.TIER_DISK);
+        stats.queueWait().record(10);
+        assertEquals(1, snapshot.hits[LoaderStats.TIER_DISK]);
+        assertEquals(0, snapshot.queueWait.count);
+        assertEquals(2, stats.snapshot().hits[LoaderStats.TIER_DISK]);
+    }
+
+    @Test
+    public void reset_clearsCountersAndHistograms() {
+        LoaderStats stats = new LoaderStats();
+        for (int tier = 0; tier < LoaderStats.TIER_COUNT; tier++) {
+            stats.recordHit(tier);
+            stats.recordMiss(tier);
+            stats.recordBytes(tier, 10);
+        }
+        stats.recordNotModified();
+        stats.recordDeduplicated();
+        stats.decodeLatency().record(1);
+        stats.downloadLatency().record(2);
+        stats.queueWait().record(3);
+
+        stats.reset();
+        LoaderStats.Snapshot snapshot = stats.snapshot();
+        for (int tier = 0; tier < LoaderStats.TIER_COUNT; tier++) {
+            assertEquals(0, snapshot.hits[tier]);
+            assertEquals(0, snapshot.misses[tier]);
+            assertEquals(0, snapshot.bytes[tier]);
+        }
+        assertEquals(0, snapshot.notModified);
+        assertEquals(0, snapshot.deduplicated);
+        assertEquals(0, snapshot.decodeLatency.count);
+        assertEquals(0, snapshot.downloadLatency.count);
+        assertEquals(0, snapshot.queueWait.count);
+    }
+}
@@ -0,0 +1,121 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import org.junit.Test;
+
+import java.util.concurrent.PriorityBlockingQueue;
+
+import static org.junit.Assert.*;
+
+public class PriorityTaskTest {
+
+    private static class NamedTask extends PriorityTask {
+        final String name;
+
+        NamedTask(String name, int priority) {
+            super(priority);
+            this.name = name;
+        }
+
+        NamedTask(String name, int priority, long sequence) {
+            super(priority, sequence);
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    private static String drain(PriorityBlockingQueue<PriorityTask> queue) {
+        StringBuilder order = new StringBuilder();
+        PriorityTask task;
+        while ((task = queue.poll()) != null) {
+            order.append(((NamedTask) task).name);
+        }
+        return order.toString();
+    }
+
+    @Test
+    public void queue_higherPriorityFirst() {
+        PriorityBlockingQueue<PriorityTask> queue = new PriorityBlockingQueue<PriorityTask>();
+        queue.add(new NamedTask("l", PriorityTask.PRIORITY_LOW));
+        queue.add(new NamedTask("n", PriorityTask.PRIORITY_NORMAL));
+        queue.add(new NamedTask("h", PriorityTask.PRIORITY_HIGH));
+
+        assertEquals("hnl", drain(queue));
+    }
+
+    @Test
+    public void queue_samePriorityIsLifo() {
+        PriorityBlockingQueue<PriorityTask> queue = new PriorityBlockingQueue<PriorityTask>();
+        queue.add(new NamedTask("a", PriorityTask.PRIORITY_NORMAL));
+        queue.add(new NamedTask("b", PriorityTask.PRIORITY_NORMAL));
+        queue.add(new NamedTask("c", PriorityTask.PRIORITY_NORMAL));
+
+        assertEquals("cba", drain(queue));
+    }
+
+    @Test
+    public void queue_priorityBeforeSequence() {
+        PriorityBlockingQueue<PriorityTask> queue = new PriorityBlockingQueue<PriorityTask>();
+        queue.add(new NamedTask("n1", PriorityTask.PRIORITY_NORMAL));
+        queue.add(new NamedTask("l1", PriorityTask.PRIORITY_LOW));
+        queue.add(new NamedTask("n2", PriorityTask.PRIORITY_NORMAL));
+        queue.add(new NamedTask("l2", PriorityTask.PRIORITY_LOW));
+        queue.add(new NamedTask("h1", PriorityTask.PRIORITY_HIGH));
+
+        assertEquals("h1n2n1l2l1", drain(queue));
+    }
+
+    @Test
+    public void queue_laterStageKeepsOriginalSequence() {
+        long first = PriorityTask.nextSequence();
+        PriorityBlockingQueue<PriorityTask> queue = new PriorityBlockingQueue<PriorityTask>();
+        queue.add(new NamedTask("new", PriorityTask.PRIORITY_NORMAL));
+        //沿用较早的序号,排在之后提交的任务后面
+        queue.add(new NamedTask("old", PriorityTask.PRIORITY_NORMAL, first));
+
+        assertEquals("newold", drain(queue));
+    }
+
+    @Test
+    public void descendingSequences_runInListOrder() {
+        PriorityBlockingQueue<PriorityTask> queue = new PriorityBlockingQueue<PriorityTask>();
+        queue.add(new NamedTask("o", PriorityTask.PRIORITY_LOW));
+        //与ImageLoader.prefetch一样,列表中离可见区域近的在前
+        String[] names = {"1", "2", "3", "4"};
+        long[] sequences = PriorityTask.descendingSequences(names.length);
+        for (int i = 0; i < names.length; i++) {
+            queue.add(new NamedTask(names[i], PriorityTask.PRIORITY_LOW, sequences[i]));
+        }
+        queue.add(new NamedTask("v", PriorityTask.PRIORITY_NORMAL));
+
+        //可见项的请求最先,之前提交的预加载排在新的一组之后
+        assertEquals("v1234o", drain(queue));
+    }
+
+    @Test
+    public void descendingSequences_areNewerThanEarlierTasks() {
+        long before = PriorityTask.nextSequence();
+        long[] sequences = PriorityTask.descendingSequences(3);
+        long after = PriorityTask.nextSequence();
+
+        assertEquals(3, sequences.length);
+        assertEquals(sequences[0] - 1, sequences[1]);
+        assertEquals(sequences[1] - 1, sequences[2]);
+        assertTrue(sequences[2] > before);
+        assertTrue(sequences[0] < after);
+        assertEquals(0, PriorityTask.descendingSequences(0).length);
+    }
+
+    @Test
+    public void compareTo_equalForSamePriorityAndSequence() {
+        long sequence = PriorityTask.nextSequence();
+        NamedTask a = new NamedTask("a", PriorityTask.PRIORITY_NORMAL, sequence);
+        NamedTask b = new NamedTask("b", PriorityTask.PRIORITY_NORMAL, sequence);
+
+        assertEquals(0, a.compareTo(b));
+        assertEquals(0, b.compareTo(a));
+        assertTrue(a.compareTo(new NamedTask("c", PriorityTask.PRIORITY_HIGH, sequence)) > 0);
+    }
+}
@@ -0,0 +1,31 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ShardedDiskCacheTest {
+
+    @Test
+    public void getShardIndex_usesFirstHexDigit() {
+        assertEquals(0, ShardedDiskCache.getShardIndex("0f3a", 4));
+        assertEquals(1, ShardedDiskCache.getShardIndex("5f3a", 4));
+        assertEquals(3, ShardedDiskCache.getShardIndex("ff3a", 4));
+        assertEquals(2, ShardedDiskCache.getShardIndex("a000", 4));
+    }
+
+    @Test
+    public void getShardIndex_isInRangeForNonHexKeys() {
+        String[] keys = {"-12345", "key", "", "_"};
+        for (String key : keys) {
+            int index = ShardedDiskCache.getShardIndex(key, 4);
+            assertTrue(index >= 0 && index < 4);
+        }
+    }
+
+    @Test
+    public void getShardIndex_singleShard() {
+        assertEquals(0, ShardedDiskCache.getShardIndex("ff3a", 1));
+        assertEquals(0, ShardedDiskCache.getShardIndex("-1", 1));
+    }
+}
@@ -0,0 +1,25 @@
+package com.jikexueyuan.imageloaderapp.view;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TiledImageTest {
+
+    @Test
+    public void getSampleSize_isLargestPowerOfTwoNotAboveInverseScale() {
+        assertEquals(1, TiledImage.getSampleSize(1f));
+        assertEquals(1, TiledImage.getSampleSize(2f));
+        assertEquals(1, TiledImage.getSampleSize(0.75f));
+        assertEquals(2, TiledImage.getSampleSize(0.5f));
+        assertEquals(2, TiledImage.getSampleSize(0.3f));
+        assertEquals(4, TiledImage.getSampleSize(0.25f));
+        assertEquals(8, TiledImage.getSampleSize(0.1f));
+    }
+
+    @Test
+    public void getSampleSize_invalidScale() {
+        assertEquals(1, TiledImage.getSampleSize(0f));
+        assertEquals(1, TiledImage.getSampleSize(-1f));
+    }
+}
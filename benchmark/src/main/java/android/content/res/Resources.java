@@ -0,0 +1,7 @@
+package android.content.res;
+
+/**
+ * JVM上运行基准测试用的Resources,只用于通过编译
+ */
+public class Resources {
+}
@@ -0,0 +1,76 @@
+package android.graphics;
+
+/**
+ * JVM上运行基准测试用的Bitmap,只保存尺寸和格式,不分配像素
+ */
+public final class Bitmap {
+
+    public static final int DENSITY_NONE = 0;
+
+    public enum Config {
+        ALPHA_8,
+        RGB_565,
+        ARGB_4444,
+        ARGB_8888
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Config mConfig;
+    private int mDensity = DENSITY_NONE;
+    private boolean mRecycled;
+
+    private Bitmap(int width, int height, Config config) {
+        mWidth = width;
+        mHeight = height;
+        mConfig = config;
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        return new Bitmap(width, height, config);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public Config getConfig() {
+        return mConfig;
+    }
+
+    public int getRowBytes() {
+        return mWidth * (mConfig == Config.ARGB_8888 ? 4 : mConfig == Config.ALPHA_8 ? 1 : 2);
+    }
+
+    public int getByteCount() {
+        return getRowBytes() * mHeight;
+    }
+
+    public int getAllocationByteCount() {
+        return getByteCount();
+    }
+
+    public int getDensity() {
+        return mDensity;
+    }
+
+    public void setDensity(int density) {
+        mDensity = density;
+    }
+
+    public boolean isMutable() {
+        return true;
+    }
+
+    public boolean isRecycled() {
+        return mRecycled;
+    }
+
+    public void recycle() {
+        mRecycled = true;
+    }
+}
@@ -0,0 +1,42 @@
+package android.graphics;
+
+import android.content.res.Resources;
+
+import java.io.FileDescriptor;
+import java.io.InputStream;
+
+/**
+ * JVM上运行基准测试用的BitmapFactory,不做真正的解码,所有decode方法返回null
+ */
+public class BitmapFactory {
+
+    public static class Options {
+        public boolean inJustDecodeBounds;
+        public boolean inMutable;
+        public int inSampleSize;
+        public Bitmap inBitmap;
+        public Bitmap.Config inPreferredConfig = Bitmap.Config.ARGB_8888;
+        public boolean inScaled = true;
+        public int inDensity;
+        public int inTargetDensity;
+        public int outWidth;
+        public int outHeight;
+        public String outMimeType;
+    }
+
+    public static Bitmap decodeResource(Resources res, int id, Options opts) {
+        return null;
+    }
+
+    public static Bitmap decodeFileDescriptor(FileDescriptor fd, Rect outPadding, Options opts) {
+        return null;
+    }
+
+    public static Bitmap decodeStream(InputStream is, Rect outPadding, Options opts) {
+        return null;
+    }
+
+    public static Bitmap decodeByteArray(byte[] data, int offset, int length, Options opts) {
+        return null;
+    }
+}
@@ -0,0 +1,11 @@
+package android.graphics;
+
+/**
+ * JVM上运行基准测试用的Rect,只用于通过编译
+ */
+public final class Rect {
+    public int left;
+    public int top;
+    public int right;
+    public int bottom;
+}
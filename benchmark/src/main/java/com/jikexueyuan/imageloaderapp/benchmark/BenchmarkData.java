@@ -0,0 +1,36 @@
+package com.jikexueyuan.imageloaderapp.benchmark;
+
+import java.util.Random;
+
+/**
+ * 基准测试的输入数据,使用固定种子生成,保证不同提交之间的测量结果可以比较
+ */
+final class BenchmarkData {
+
+    static final long SEED = 20151221L;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * 生成形如图片CDN地址的url
+     * @param count
+     * @return
+     */
+    static String[] urls(int count) {
+        Random random = new Random(SEED);
+        String[] urls = new String[count];
+        for (int i = 0; i < count; i++) {
+            urls[i] = "http://img" + random.nextInt(8) + ".example.com/photos/"
+                    + Long.toHexString(random.nextLong()) + "/" + random.nextInt(100000)
+                    + "_" + (100 + random.nextInt(1900)) + "x" + (100 + random.nextInt(1900)) + ".jpg";
+        }
+        return urls;
+    }
+
+    static byte[] bytes(int length) {
+        byte[] data = new byte[length];
+        new Random(SEED).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,116 @@
+package com.jikexueyuan.imageloaderapp.benchmark;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+import com.jikexueyuan.imageloaderapp.view.DiskCacheFlusher;
+import com.jikexueyuan.imageloaderapp.view.ShardedDiskCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DiskLruCache的写入提交吞吐量,对比每次提交都刷新日志与DiskCacheFlusher批量刷新
+ * 结果受文件系统影响较大,只适合在同一台机器上比较
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class DiskCacheBenchmark {
+
+    /**
+     * 与ImageLoader中的配置一致:图片数据和图片信息两个value
+     */
+    private static final int VALUE_COUNT = 2;
+    private static final long MAX_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * 反复覆盖写入的key数量
+     */
+    private static final int KEY_COUNT = 1024;
+
+    @Param({"4096", "65536"})
+    public int valueSize;
+
+    private File mDirectory;
+    private ShardedDiskCache mDiskLruCache;
+    private DiskCacheFlusher mFlusher;
+    private byte[] mData;
+    private String[] mKeys;
+    private int mIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("disklrucache", "");
+        if (!mDirectory.delete() || !mDirectory.mkdirs()) {
+            throw new IOException("can not create " + mDirectory);
+        }
+        //单线程写入,不分片
+        mDiskLruCache = ShardedDiskCache.open(mDirectory, 1, VALUE_COUNT, MAX_SIZE, 1);
+        //与ImageLoader中的配置一致
+        mFlusher = new DiskCacheFlusher(mDiskLruCache, 20, 1000L);
+        mData = BenchmarkData.bytes(valueSize);
+        mKeys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            mKeys[i] = "key" + Integer.toHexString(i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mFlusher.flushNow();
+        mDiskLruCache.delete();
+        mDirectory.delete();
+    }
+
+    private void write() throws IOException {
+        mIndex = (mIndex + 1) & (KEY_COUNT - 1);
+        DiskLruCache.Editor editor = mDiskLruCache.edit(mKeys[mIndex]);
+        try {
+            OutputStream out = editor.newOutputStream(0);
+            try {
+                out.write(mData);
+            } finally {
+                out.close();
+            }
+            editor.set(1, "width=100\nheight=100\n");
+            editor.commit();
+        } finally {
+            editor.abortUnlessCommitted();
+        }
+    }
+
+    /**
+     * 对照组:每次提交后立即刷新日志
+     */
+    @Benchmark
+    public void commitAndFlush() throws IOException {
+        write();
+        mDiskLruCache.flush();
+    }
+
+    /**
+     * 当前的做法:日志由DiskCacheFlusher在后台批量刷新
+     */
+    @Benchmark
+    public void commitBatchedFlush() throws IOException {
+        write();
+        mFlusher.onCommit();
+    }
+}
@@ -0,0 +1,58 @@
+package com.jikexueyuan.imageloaderapp.benchmark;
+
+import com.jikexueyuan.imageloaderapp.view.ImageResizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 采样率计算,每次绑定和每次内存缓存查找都会调用
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class InSampleSizeBenchmark {
+
+    private static final int SIZE_COUNT = 1024;
+
+    /**
+     * 每组依次为原始宽、原始高、请求宽、请求高
+     */
+    private int[] mSizes;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkData.SEED);
+        mSizes = new int[SIZE_COUNT * 4];
+        for (int i = 0; i < SIZE_COUNT; i++) {
+            mSizes[i * 4] = 100 + random.nextInt(4000);
+            mSizes[i * 4 + 1] = 100 + random.nextInt(4000);
+            //约1/8的请求不指定尺寸
+            boolean unspecified = random.nextInt(8) == 0;
+            mSizes[i * 4 + 2] = unspecified ? 0 : 50 + random.nextInt(1000);
+            mSizes[i * 4 + 3] = unspecified ? 0 : 50 + random.nextInt(1000);
+        }
+    }
+
+    @Benchmark
+    public int calculateInSampleSize() {
+        int i = mIndex;
+        mIndex = (i + 4) & (SIZE_COUNT * 4 - 1);
+        return ImageResizer.calculateInSampleSize(mSizes[i], mSizes[i + 1], mSizes[i + 2], mSizes[i + 3]);
+    }
+}
@@ -0,0 +1,149 @@
+package com.jikexueyuan.imageloaderapp.benchmark;
+
+import android.util.LruCache;
+
+import com.jikexueyuan.imageloaderapp.view.ClockCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程同时读写内存缓存时的吞吐量,对比LruCache与ClockCache
+ * 主线程绑定时查找,多个磁盘线程查找并写入,都访问同一个缓存
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class MemoryCacheContentionBenchmark {
+
+    private static final int CAPACITY = 1024;
+
+    /**
+     * key的数量是容量的2倍,查找既有命中也有未命中,未命中时写入并触发淘汰
+     */
+    private static final int KEY_COUNT = CAPACITY * 2;
+
+    private String[] mKeys;
+    private LruCache<String, Object> mLruCache;
+    private ClockCache<String, Object> mClockCache;
+
+    @Setup
+    public void setUp() {
+        mKeys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            mKeys[i] = "key_" + i;
+        }
+        mLruCache = new LruCache<String, Object>(CAPACITY);
+        mClockCache = new ClockCache<String, Object>(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            mLruCache.put(mKeys[i], mKeys[i]);
+            mClockCache.put(mKeys[i], mKeys[i]);
+        }
+    }
+
+    /**
+     * 每个线程独立的随机序列,访问集中在一部分热点key上
+     */
+    @State(Scope.Thread)
+    public static class Access {
+        private final int[] mIndexes = new int[4096];
+        private int mPosition;
+
+        @Setup
+        public void setUp() {
+            Random random = new Random(BenchmarkData.SEED + Thread.currentThread().getId());
+            for (int i = 0; i < mIndexes.length; i++) {
+                //约3/4的访问落在前1/4的key上
+                mIndexes[i] = random.nextInt(4) != 0 ? random.nextInt(KEY_COUNT / 4) : random.nextInt(KEY_COUNT);
+            }
+        }
+
+        int next() {
+            mPosition = (mPosition + 1) & (mIndexes.length - 1);
+            return mIndexes[mPosition];
+        }
+    }
+
+    private Object lruGetOrPut(Access access) {
+        String key = mKeys[access.next()];
+        Object value = mLruCache.get(key);
+        if (value == null) {
+            mLruCache.put(key, key);
+            value = key;
+        }
+        return value;
+    }
+
+    private Object clockGetOrPut(Access access) {
+        String key = mKeys[access.next()];
+        Object value = mClockCache.get(key);
+        if (value == null) {
+            mClockCache.put(key, key);
+            value = key;
+        }
+        return value;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object lruCache1Thread(Access access) {
+        return lruGetOrPut(access);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Object lruCache2Threads(Access access) {
+        return lruGetOrPut(access);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object lruCache4Threads(Access access) {
+        return lruGetOrPut(access);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object lruCache8Threads(Access access) {
+        return lruGetOrPut(access);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object clockCache1Thread(Access access) {
+        return clockGetOrPut(access);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Object clockCache2Threads(Access access) {
+        return clockGetOrPut(access);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object clockCache4Threads(Access access) {
+        return clockGetOrPut(access);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object clockCache8Threads(Access access) {
+        return clockGetOrPut(access);
+    }
+}
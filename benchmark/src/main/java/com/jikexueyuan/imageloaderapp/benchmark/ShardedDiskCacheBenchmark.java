@@ -0,0 +1,116 @@
+package com.jikexueyuan.imageloaderapp.benchmark;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+import com.jikexueyuan.imageloaderapp.view.DiskCacheFlusher;
+import com.jikexueyuan.imageloaderapp.view.ShardedDiskCache;
+import com.jikexueyuan.imageloaderapp.view.UrlKeyGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个下载线程同时提交到同一个磁盘缓存时的吞吐量,对比不分片与按key分片
+ * 与ImageLoader一致,key为url的MD5,日志由DiskCacheFlusher批量刷新
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ShardedDiskCacheBenchmark {
+
+    private static final int VALUE_COUNT = 2;
+    private static final long MAX_SIZE = 64 * 1024 * 1024;
+    private static final int VALUE_SIZE = 16 * 1024;
+
+    /**
+     * 反复覆盖写入的key数量
+     */
+    private static final int KEY_COUNT = 1024;
+
+    @Param({"1", "4"})
+    public int shardCount;
+
+    private File mDirectory;
+    private ShardedDiskCache mDiskCache;
+    private DiskCacheFlusher mFlusher;
+    private byte[] mData;
+    private String[] mKeys;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("shardeddiskcache", "");
+        if (!mDirectory.delete() || !mDirectory.mkdirs()) {
+            throw new IOException("can not create " + mDirectory);
+        }
+        mDiskCache = ShardedDiskCache.open(mDirectory, 1, VALUE_COUNT, MAX_SIZE, shardCount);
+        mFlusher = new DiskCacheFlusher(mDiskCache, 20, 1000L);
+        mData = BenchmarkData.bytes(VALUE_SIZE);
+        UrlKeyGenerator keyGenerator = new UrlKeyGenerator(KEY_COUNT);
+        String[] urls = BenchmarkData.urls(KEY_COUNT);
+        mKeys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            mKeys[i] = keyGenerator.getKey(urls[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mFlusher.flushNow();
+        mDiskCache.delete();
+        mDirectory.delete();
+    }
+
+    /**
+     * 每个线程从不同的位置开始依次写入
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        private int mIndex = (int) (Thread.currentThread().getId() * 131) & (KEY_COUNT - 1);
+
+        int next() {
+            mIndex = (mIndex + 1) & (KEY_COUNT - 1);
+            return mIndex;
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void commit4Threads(Writer writer) throws IOException {
+        DiskLruCache.Editor editor = mDiskCache.edit(mKeys[writer.next()]);
+        if (editor == null) {
+            //其他线程正在写入同一个key
+            return;
+        }
+        try {
+            OutputStream out = editor.newOutputStream(0);
+            try {
+                out.write(mData);
+            } finally {
+                out.close();
+            }
+            editor.set(1, "width=100\nheight=100\n");
+            editor.commit();
+            mFlusher.onCommit();
+        } finally {
+            editor.abortUnlessCommitted();
+        }
+    }
+}
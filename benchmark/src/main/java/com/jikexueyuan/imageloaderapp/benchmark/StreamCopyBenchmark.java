@@ -0,0 +1,134 @@
+package com.jikexueyuan.imageloaderapp.benchmark;
+
+import com.jikexueyuan.imageloaderapp.view.ByteArrayPool;
+import com.jikexueyuan.imageloaderapp.view.FetchResponse;
+import com.jikexueyuan.imageloaderapp.view.HttpUrlConnectionFetcher;
+import com.jikexueyuan.imageloaderapp.view.IoUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从本地HTTP服务下载并拷贝到输出流,即ImageLoader写入磁盘缓存时的下载路径
+ * 服务在同一进程内,测量的是客户端的连接和拷贝开销,而不是网络
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class StreamCopyBenchmark {
+
+    /**
+     * 缩略图、普通图片、大图
+     */
+    @Param({"16384", "262144", "2097152"})
+    public int payloadSize;
+
+    private HttpServer mServer;
+    private String mUrl;
+    private HttpUrlConnectionFetcher mFetcher;
+    private ByteArrayPool mPool;
+
+    @Setup
+    public void setUp() throws IOException {
+        final byte[] payload = BenchmarkData.bytes(payloadSize);
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/image", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, payload.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(payload);
+                out.close();
+                exchange.close();
+            }
+        });
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/image";
+        mFetcher = new HttpUrlConnectionFetcher();
+        //与ImageLoader中的复用池大小一致
+        mPool = new ByteArrayPool(512 * 1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    /**
+     * 当前的做法:复用连接,使用池中的缓冲区整块拷贝
+     */
+    @Benchmark
+    public long fetchAndCopy() throws IOException {
+        FetchResponse response = mFetcher.fetch(mUrl, null);
+        try {
+            return IoUtils.copy(response.getBody(), new CountingOutputStream(), mPool);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * 对照组:每次disconnect,经过缓冲流逐字节拷贝,即引入Fetcher之前的做法
+     */
+    @Benchmark
+    public long disconnectAndCopyBytewise() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mUrl).openConnection();
+        CountingOutputStream target = new CountingOutputStream();
+        try {
+            InputStream in = new BufferedInputStream(connection.getInputStream(), IoUtils.BUFFER_SIZE);
+            OutputStream out = new BufferedOutputStream(target, IoUtils.BUFFER_SIZE);
+            int b;
+            while ((b = in.read()) != -1) {
+                out.write(b);
+            }
+            out.flush();
+            in.close();
+        } finally {
+            connection.disconnect();
+        }
+        return target.count;
+    }
+
+    /**
+     * 丢弃数据,只记录字节数,避免测量写文件的开销
+     */
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.jikexueyuan.imageloaderapp.benchmark;
+
+import com.jikexueyuan.imageloaderapp.view.UrlKeyGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * url到磁盘缓存key的计算,即ImageLoader.hashKeyFormUrl
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class UrlKeyBenchmark {
+
+    private static final int URL_COUNT = 4096;
+
+    /**
+     * 与ImageLoader中的配置一致
+     */
+    private static final int URL_KEY_CACHE_COUNT = 256;
+
+    /**
+     * 反复访问的url数量,小于缓存容量,全部命中
+     */
+    private static final int HOT_URL_COUNT = 128;
+
+    private String[] mUrls;
+    private UrlKeyGenerator mGenerator;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        mUrls = BenchmarkData.urls(URL_COUNT);
+        mGenerator = new UrlKeyGenerator(URL_KEY_CACHE_COUNT);
+    }
+
+    private String nextUrl(int mask) {
+        mIndex = (mIndex + 1) & mask;
+        return mUrls[mIndex];
+    }
+
+    /**
+     * 每次都计算MD5
+     */
+    @Benchmark
+    public String hashKey() {
+        return UrlKeyGenerator.hashKeyForUrl(nextUrl(URL_COUNT - 1));
+    }
+
+    /**
+     * 列表来回滑动时的情形,url都在缓存中
+     */
+    @Benchmark
+    public String cachedKeyHit() {
+        return mGenerator.getKey(nextUrl(HOT_URL_COUNT - 1));
+    }
+
+    /**
+     * url数量远大于缓存容量,每次都未命中
+     */
+    @Benchmark
+    public String cachedKeyMiss() {
+        return mGenerator.getKey(nextUrl(URL_COUNT - 1));
+    }
+
+    /**
+     * 对照组:每次创建MessageDigest并用StringBuilder拼接十六进制,即引入UrlKeyGenerator之前的做法
+     */
+    @Benchmark
+    public String newDigestPerCall() throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        digest.update(nextUrl(URL_COUNT - 1).getBytes());
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            String hex = Integer.toHexString(0xFF & b);
+            if (hex.length() == 1) {
+                sb.append('0');
+            }
+            sb.append(hex);
+        }
+        return sb.toString();
+    }
+}